@@ -0,0 +1,91 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.benchmarks;
+
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bringing up many peers at once: one beforenm per public key in a loop, against the batch call
+ * that shares the inversion and runs the ladders on the fork-join pool. Scores are whole batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchBeforenmBenchmark {
+  @Param({"16", "256", "4096"})
+  public int peers;
+
+  private byte[] secretkey;
+  private byte[][] publickeys;
+  private byte[][] precomputed;
+
+  @Setup
+  public void setUp() {
+    secretkey = Fixtures.bytes(32);
+    publickeys = new byte[peers][];
+    precomputed = new byte[peers][32];
+
+    for (int i = 0; i < peers; i++) {
+      byte[] peersecret = Fixtures.bytes(32);
+      peersecret[0] ^= (byte) i;
+      peersecret[1] ^= (byte) (i >>> 8);
+
+      publickeys[i] = new byte[32];
+      curve25519xsalsa20poly1305.crypto_box_getpublickey(publickeys[i], peersecret);
+    }
+  }
+
+  @Benchmark
+  public byte[][] crypto_box_beforenm_loop() {
+    for (int i = 0; i < peers; i++)
+      curve25519xsalsa20poly1305.crypto_box_beforenm(precomputed[i], publickeys[i], secretkey);
+    return precomputed;
+  }
+
+  @Benchmark
+  public byte[][] crypto_box_beforenm_batch() {
+    curve25519xsalsa20poly1305.crypto_box_beforenm_batch(precomputed, publickeys, secretkey);
+    return precomputed;
+  }
+}
@@ -0,0 +1,125 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.benchmarks;
+
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many small messages under one key: secretbox_easy per message in a loop, against the batch
+ * call that boxes them one after another with shared scratch. Scores are whole batches of 32
+ * messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BatchBoxBenchmark {
+  private static final int COUNT = 32;
+
+  @Param({"16", "64", "256", "1024"})
+  public int size;
+
+  private byte[] key;
+  private byte[][] nonces;
+  private byte[] m;
+  private byte[][] outputs;
+  private byte[] c;
+  private int[] moffset;
+  private int[] coffset;
+  private int[] mlen;
+  private int[] clen;
+  private int[] result;
+
+  @Setup
+  public void setUp() {
+    key = Fixtures.bytes(32);
+    nonces = new byte[COUNT][];
+    m = Fixtures.bytes(COUNT * size);
+    outputs = new byte[COUNT][];
+    Arrays.fill(outputs, m);
+    c = new byte[COUNT * (size + 16)];
+    moffset = new int[COUNT];
+    coffset = new int[COUNT];
+    mlen = new int[COUNT];
+    clen = new int[COUNT];
+    result = new int[COUNT];
+
+    for (int i = 0; i < COUNT; i++) {
+      nonces[i] = Fixtures.bytes(24);
+      nonces[i][0] ^= (byte) i;
+      moffset[i] = i * size;
+      coffset[i] = i * (size + 16);
+      mlen[i] = size;
+      clen[i] = size + 16;
+    }
+
+    xsalsa20poly1305.crypto_secretbox_easy_batch(c, coffset, m, moffset, mlen, nonces, key, COUNT);
+  }
+
+  @Benchmark
+  public byte[] secretbox_loop() {
+    for (int i = 0; i < COUNT; i++)
+      xsalsa20poly1305.crypto_secretbox_easy(c, coffset[i], m, moffset[i], mlen[i], nonces[i], key);
+    return c;
+  }
+
+  @Benchmark
+  public byte[] secretbox_batch() {
+    xsalsa20poly1305.crypto_secretbox_easy_batch(c, coffset, m, moffset, mlen, nonces, key, COUNT);
+    return c;
+  }
+
+  @Benchmark
+  public int[] open_loop() {
+    for (int i = 0; i < COUNT; i++)
+      result[i] = xsalsa20poly1305.crypto_secretbox_open_easy(m, moffset[i], c, coffset[i], clen[i], nonces[i], key);
+    return result;
+  }
+
+  @Benchmark
+  public int[] open_batch() {
+    xsalsa20poly1305.crypto_secretbox_open_easy_batch(outputs, moffset, c, coffset, clen, nonces, key, result, COUNT);
+    return result;
+  }
+}
@@ -0,0 +1,104 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.benchmarks;
+
+import com.neilalexander.jnacl.crypto.curve25519;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key agreement: the raw Montgomery ladder and the full beforenm step every NaCl constructor runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class Curve25519Benchmark {
+  private byte[] secretkey;
+  private byte[] publickey;
+  private byte[] shared;
+  private byte[] precomputed;
+  private byte[] basepoint;
+
+  @Setup
+  public void setUp() {
+    byte[] peersecret = Fixtures.bytes(32);
+
+    secretkey = Fixtures.bytes(32);
+    publickey = new byte[32];
+    shared = new byte[32];
+    precomputed = new byte[32];
+    basepoint = new byte[32];
+    basepoint[0] = 9;
+
+    curve25519.crypto_scalarmult_base(publickey, peersecret);
+  }
+
+  @Benchmark
+  public byte[] crypto_scalarmult() {
+    curve25519.crypto_scalarmult(shared, secretkey, publickey);
+    return shared;
+  }
+
+  @Benchmark
+  public byte[] crypto_box_beforenm() {
+    curve25519xsalsa20poly1305.crypto_box_beforenm(precomputed, publickey, secretkey);
+    return precomputed;
+  }
+
+  @Benchmark
+  public byte[] crypto_scalarmult_base() {
+    curve25519.crypto_scalarmult_base(shared, secretkey);
+    return shared;
+  }
+
+  @Benchmark
+  public byte[] crypto_scalarmult_basepoint_ladder() {
+    curve25519.crypto_scalarmult(shared, secretkey, basepoint);
+    return shared;
+  }
+
+  @Benchmark
+  public byte[] crypto_box_getpublickey() {
+    curve25519xsalsa20poly1305.crypto_box_getpublickey(shared, secretkey);
+    return shared;
+  }
+}
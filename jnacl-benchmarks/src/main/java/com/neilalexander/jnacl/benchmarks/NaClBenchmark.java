@@ -0,0 +1,116 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.benchmarks;
+
+import com.neilalexander.jnacl.NaCl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class NaClBenchmark {
+  @Param({"16", "64", "256", "1024", "4096", "16384", "65536", "262144", "1048576", "4194304", "16777216"})
+  public int size;
+
+  private NaCl nacl;
+  private byte[] nonce;
+  private byte[] plaintext;
+  private byte[] ciphertext;
+  private byte[] forged;
+  private ByteBuffer plaintextbuffer;
+  private ByteBuffer ciphertextbuffer;
+  private ByteBuffer outputbuffer;
+
+  @Setup
+  public void setUp() throws Exception {
+    nacl = new NaCl(Fixtures.bytes(32), Fixtures.bytes(32));
+    nonce = Fixtures.bytes(24);
+    plaintext = Fixtures.bytes(size);
+    ciphertext = nacl.encrypt(plaintext, nonce);
+    forged = ciphertext.clone();
+    forged[16] ^= 1;
+
+    plaintextbuffer = ByteBuffer.allocateDirect(size);
+    plaintextbuffer.put(plaintext).flip();
+    ciphertextbuffer = ByteBuffer.allocateDirect(ciphertext.length);
+    ciphertextbuffer.put(ciphertext).flip();
+    outputbuffer = ByteBuffer.allocateDirect(ciphertext.length);
+  }
+
+  @Benchmark
+  public byte[] encrypt() {
+    return nacl.encrypt(plaintext, nonce);
+  }
+
+  @Benchmark
+  public byte[] decrypt() {
+    return nacl.decrypt(ciphertext, nonce);
+  }
+
+  @Benchmark
+  public byte[] decrypt_forged() {
+    return nacl.decrypt(forged, nonce);
+  }
+
+  @Benchmark
+  public boolean verify_forged() {
+    return nacl.verify(forged, nonce);
+  }
+
+  @Benchmark
+  public ByteBuffer encrypt_direct() {
+    plaintextbuffer.rewind();
+    outputbuffer.clear();
+    nacl.encrypt(plaintextbuffer, outputbuffer, nonce);
+    return outputbuffer;
+  }
+
+  @Benchmark
+  public ByteBuffer decrypt_direct() {
+    ciphertextbuffer.rewind();
+    outputbuffer.clear();
+    nacl.decrypt(ciphertextbuffer, outputbuffer, nonce);
+    return outputbuffer;
+  }
+}
@@ -0,0 +1,301 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.BufferArena;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+
+/**
+ * Frames boxed messages on a non-blocking channel, such as a SocketChannel driven by a
+ * Selector, under the key of a {@link NaCl} instance. One codec serves one connection and is
+ * not thread safe.
+ *
+ * Each frame is a 4 byte little endian length followed by that many bytes: the 24 byte nonce,
+ * the 16 byte authenticator and the ciphertext. Nonces are a random 16 byte prefix, chosen per
+ * codec, followed by a 64 bit message counter, so both ends of a connection can send under the
+ * same key. The receiving end takes the sender's prefix from its first frame and then accepts
+ * only frames under that prefix with the counter one above the last, so replayed, reordered,
+ * dropped or reflected frames are reported as errors even though they verify.
+ *
+ * Incoming bytes are read into a direct buffer and every complete frame is opened in place
+ * there; {@link #decode()} hands out a view of the plaintext without copying it. Outgoing
+ * messages are sealed straight into direct write buffers, which go back to the shared
+ * {@link BufferArena} once sent, and queued frames go out together in gathering writes. Partial
+ * reads and writes simply leave the remainder for the next call. Call {@link #close()} when the
+ * connection is done with to return the codec's buffers.
+ */
+public class NaClChannelCodec {
+  public static final int DEFAULT_MAX_MESSAGE = 1 << 16;
+
+  static final int LENGTH_BYTES = 4;
+  static final int NONCE_BYTES = 24;
+  static final int MAC_BYTES = curve25519xsalsa20poly1305.crypto_secretbox_MACBYTES;
+  static final int PREFIX_BYTES = 16;
+  static final int OVERHEAD = LENGTH_BYTES + NONCE_BYTES + MAC_BYTES;
+
+  /* frames handed to a single gathering write */
+  private static final int GATHER = 16;
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private final byte[] key;
+  private final int maxmessage;
+
+  private final ByteBuffer readbuffer;
+  private final ByteBuffer view;
+  private final byte[] readnonce = new byte[NONCE_BYTES];
+  private final byte[] peerprefix = new byte[PREFIX_BYTES];
+  private boolean peerknown;
+  private long readcounter;
+  private int start;
+
+  private final byte[] writenonce = new byte[NONCE_BYTES];
+  private long counter;
+  private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+  private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+
+  public NaClChannelCodec(NaCl nacl) {
+    this(nacl, DEFAULT_MAX_MESSAGE);
+  }
+
+  /**
+   * @param maxmessage the longest plaintext accepted in either direction; longer incoming
+   *                   frames are treated as a protocol error
+   */
+  public NaClChannelCodec(NaCl nacl, int maxmessage) {
+    if (maxmessage < 0 || maxmessage > Integer.MAX_VALUE - OVERHEAD)
+      throw new IllegalArgumentException("Maximum message length out of range");
+
+    this.key = nacl.precomputed;
+    this.maxmessage = maxmessage;
+    this.readbuffer = BufferArena.shared().acquireDirect(OVERHEAD + maxmessage).order(ByteOrder.LITTLE_ENDIAN);
+    this.view = readbuffer.duplicate();
+    random.nextBytes(writenonce);
+  }
+
+  /**
+   * Reads whatever the channel has available. Any messages returned by {@link #decode()}
+   * before this call are no longer valid afterwards.
+   *
+   * @return the number of bytes read, possibly zero, or -1 at end of stream
+   */
+  public int read(ReadableByteChannel channel) throws IOException {
+    if (start > 0) {
+      readbuffer.flip();
+      readbuffer.position(start);
+      readbuffer.compact();
+      start = 0;
+    }
+
+    return channel.read(readbuffer);
+  }
+
+  public int read(SelectionKey key) throws IOException {
+    return read((ReadableByteChannel) key.channel());
+  }
+
+  /**
+   * Opens the next complete frame in place and returns a read-only view of its plaintext,
+   * valid until the next call to {@link #read(ReadableByteChannel)}, or null if no complete
+   * frame has arrived yet. Call it repeatedly after each read until it returns null.
+   *
+   * @throws IOException if a frame is malformed or fails to verify, after which the
+   *                     connection should be dropped
+   */
+  public ByteBuffer decode() throws IOException {
+    int available = readbuffer.position() - start;
+
+    if (available < LENGTH_BYTES)
+      return null;
+
+    int length = readbuffer.getInt(start);
+
+    if (length < OVERHEAD - LENGTH_BYTES || length > OVERHEAD - LENGTH_BYTES + maxmessage)
+      throw new IOException("Frame length out of range");
+
+    if (available < LENGTH_BYTES + length)
+      return null;
+
+    int nonceoffset = start + LENGTH_BYTES;
+    int macoffset = nonceoffset + NONCE_BYTES;
+    int textoffset = macoffset + MAC_BYTES;
+    int textlength = length - NONCE_BYTES - MAC_BYTES;
+
+    for (int i = 0; i < NONCE_BYTES; i++)
+      readnonce[i] = readbuffer.get(nonceoffset + i);
+
+    checkNonce();
+
+    if (xsalsa20poly1305.crypto_secretbox_open_detached(readbuffer, textoffset, readbuffer, textoffset, readbuffer, macoffset, textlength, readnonce, key) != 0)
+      throw new IOException("Message failed to verify");
+
+    if (!peerknown) {
+      System.arraycopy(readnonce, 0, peerprefix, 0, PREFIX_BYTES);
+      peerknown = true;
+    }
+
+    readcounter++;
+    start = textoffset + textlength;
+
+    view.limit(start);
+    view.position(textoffset);
+
+    return view.asReadOnlyBuffer();
+  }
+
+  /*
+   * Both directions share one key, so a frame that verifies is not necessarily one the peer
+   * meant for us now: it must carry the peer's prefix, not ours, and the next counter.
+   */
+  private void checkNonce() throws IOException {
+    boolean reflected = true;
+    boolean foreign = false;
+
+    for (int i = 0; i < PREFIX_BYTES; i++) {
+      reflected &= readnonce[i] == writenonce[i];
+      foreign |= peerknown && readnonce[i] != peerprefix[i];
+    }
+
+    if (reflected)
+      throw new IOException("Frame was sent by this end");
+
+    if (foreign)
+      throw new IOException("Frame is from a different sender");
+
+    long sequence = 0;
+
+    for (int i = 7; i >= 0; i--)
+      sequence = (sequence << 8) | (readnonce[PREFIX_BYTES + i] & 0xff);
+
+    if (sequence != readcounter)
+      throw new IOException("Frame is replayed or out of order");
+  }
+
+  /**
+   * Seals the remaining bytes of message into a frame queued for sending, consuming them.
+   *
+   * @throws IllegalArgumentException if the message is longer than the maximum
+   */
+  public void encode(ByteBuffer message) {
+    int length = message.remaining();
+
+    if (length > maxmessage)
+      throw new IllegalArgumentException("Message too long");
+
+    ByteBuffer frame = BufferArena.shared().acquireDirect(OVERHEAD + length).order(ByteOrder.LITTLE_ENDIAN);
+    long sequence = counter++;
+
+    for (int i = 0; i < 8; i++)
+      writenonce[16 + i] = (byte) (sequence >>> (8 * i));
+
+    frame.putInt(0, length + NONCE_BYTES + MAC_BYTES);
+
+    for (int i = 0; i < NONCE_BYTES; i++)
+      frame.put(LENGTH_BYTES + i, writenonce[i]);
+
+    xsalsa20poly1305.crypto_secretbox_detached(frame, OVERHEAD, frame, LENGTH_BYTES + NONCE_BYTES, message, message.position(), length, writenonce, key);
+
+    frame.limit(OVERHEAD + length);
+    message.position(message.limit());
+    pending.add(frame);
+  }
+
+  /**
+   * Writes as many queued frames as the channel accepts, several at a time.
+   *
+   * @return true if nothing is left queued
+   */
+  public boolean write(GatheringByteChannel channel) throws IOException {
+    while (!pending.isEmpty()) {
+      int count = 0;
+
+      for (ByteBuffer frame : pending) {
+        gather[count++] = frame;
+
+        if (count == GATHER)
+          break;
+      }
+
+      long written = channel.write(gather, 0, count);
+
+      for (int i = 0; i < count; i++)
+        gather[i] = null;
+
+      while (!pending.isEmpty() && !pending.peek().hasRemaining())
+        BufferArena.shared().release(pending.poll());
+
+      if (written == 0)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * As {@link #write(GatheringByteChannel)}, registering interest in OP_WRITE on the key
+   * while frames remain queued and dropping it once they have all gone out.
+   */
+  public boolean write(SelectionKey key) throws IOException {
+    boolean done = write((GatheringByteChannel) key.channel());
+
+    if (done)
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    else
+      key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+
+    return done;
+  }
+
+  /**
+   * Whether frames are queued that have not been completely written.
+   */
+  public boolean hasPending() {
+    return !pending.isEmpty();
+  }
+
+  /**
+   * Drops any frames still queued and gives all buffers back to the arena, wiped. The codec
+   * must not be used afterwards.
+   */
+  public void close() {
+    while (!pending.isEmpty())
+      BufferArena.shared().release(pending.poll());
+
+    BufferArena.shared().release(readbuffer);
+  }
+}
@@ -0,0 +1,400 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.BufferArena;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encrypts files of any size, without loading them into memory, under the key of a {@link NaCl}
+ * instance. The file is cut into fixed size chunks and each is boxed on its own, so chunks are
+ * processed in parallel through memory mapped windows, and any single chunk can be decrypted
+ * without reading the others.
+ *
+ * The encrypted file is a 24 byte header (the magic "NaCF", the chunk size as a little endian
+ * int and a random 16 byte file nonce) followed by the chunks, each a 16 byte authenticator and
+ * then the chunk's ciphertext. Every chunk but the last holds exactly chunk size bytes of
+ * plaintext; an empty file still has one empty chunk. Chunk i is boxed with the nonce made of
+ * the file nonce followed by i as a little endian 64 bit value, with the top bit set for the
+ * last chunk only, so reordered, dropped, truncated or appended chunks all fail to verify.
+ */
+public class NaClFile {
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  static final int HEADER_BYTES = 24;
+  static final int MAC_BYTES = curve25519xsalsa20poly1305.crypto_secretbox_MACBYTES;
+  static final int MAX_CHUNK_SIZE = 1 << 30;
+
+  /* upper bound on the plaintext bytes one task maps at a time */
+  static final int WINDOW = 64 << 20;
+
+  private static final byte[] MAGIC = {'N', 'a', 'C', 'F'};
+  private static final SecureRandom random = new SecureRandom();
+
+  private final byte[] key;
+  private final int chunksize;
+  private final ForkJoinPool pool;
+
+  public NaClFile(NaCl nacl) {
+    this(nacl, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param chunksize the plaintext bytes per chunk when encrypting; decryption always uses the
+   *                  chunk size recorded in the file
+   * @param pool      runs the chunks of whole file operations
+   */
+  public NaClFile(NaCl nacl, int chunksize, ForkJoinPool pool) {
+    if (chunksize <= 0 || chunksize > MAX_CHUNK_SIZE)
+      throw new IllegalArgumentException("Chunk size out of range");
+
+    this.key = nacl.precomputed;
+    this.chunksize = chunksize;
+    this.pool = pool;
+  }
+
+  /**
+   * The size of the encrypted form of a file of the given length.
+   */
+  public static long encryptedSize(long length, int chunksize) {
+    return HEADER_BYTES + chunks(length, chunksize) * MAC_BYTES + length;
+  }
+
+  public void encrypt(Path source, Path target) throws IOException {
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+             StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      encrypt(in, out);
+    }
+  }
+
+  /**
+   * Encrypts the whole of in into out, which must be readable as well as writable for it to
+   * be mapped. Anything already in out is overwritten.
+   */
+  public void encrypt(FileChannel in, FileChannel out) throws IOException {
+    long length = in.size();
+    long chunks = chunks(length, chunksize);
+    long total = encryptedSize(length, chunksize);
+    byte[] filenonce = new byte[16];
+
+    random.nextBytes(filenonce);
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.put(MAGIC);
+    putInt(header, 4, chunksize);
+    header.position(8);
+    header.put(filenonce);
+    header.flip();
+
+    out.truncate(0);
+    writeFully(out, header, 0);
+    writeFully(out, ByteBuffer.allocate(1), total - 1);
+
+    run(in, out, length, chunks, chunksize, filenonce, false);
+  }
+
+  public void decrypt(Path source, Path target) throws IOException {
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+             StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      decrypt(in, out);
+    }
+  }
+
+  /**
+   * Decrypts the whole of in into out, which must be readable as well as writable. If any
+   * chunk fails to verify, out is truncated to nothing and an IOException is thrown.
+   */
+  public void decrypt(FileChannel in, FileChannel out) throws IOException {
+    Header header = readHeader(in);
+    long body = in.size() - HEADER_BYTES;
+    long chunks = (body + header.chunksize + MAC_BYTES - 1) / (header.chunksize + MAC_BYTES);
+
+    if (chunks == 0 || body - (chunks - 1) * (header.chunksize + MAC_BYTES) < MAC_BYTES)
+      throw new IOException("Encrypted file is truncated");
+
+    long length = body - chunks * MAC_BYTES;
+
+    out.truncate(0);
+
+    if (length > 0)
+      writeFully(out, ByteBuffer.allocate(1), length - 1);
+
+    try {
+      run(in, out, length, chunks, header.chunksize, header.nonce, true);
+    } catch (IOException e) {
+      out.truncate(0);
+      throw e;
+    }
+  }
+
+  /**
+   * The number of chunks in an encrypted file.
+   */
+  public long chunks(FileChannel in) throws IOException {
+    Header header = readHeader(in);
+    long body = in.size() - HEADER_BYTES;
+
+    return (body + header.chunksize + MAC_BYTES - 1) / (header.chunksize + MAC_BYTES);
+  }
+
+  /**
+   * Decrypts just chunk index of an encrypted file into the remaining space of out, whose
+   * position is advanced past the plaintext. The chunk is verified before anything is written.
+   *
+   * @return the number of plaintext bytes written
+   * @throws IOException if there is no such chunk or it fails to verify
+   * @throws BufferOverflowException if out has less room than the chunk's plaintext
+   */
+  public int decryptChunk(FileChannel in, long index, ByteBuffer out) throws IOException {
+    Header header = readHeader(in);
+    long stride = header.chunksize + MAC_BYTES;
+    long body = in.size() - HEADER_BYTES;
+    long chunks = (body + stride - 1) / stride;
+
+    if (index < 0 || index >= chunks)
+      throw new IOException("No chunk " + index);
+
+    int boxlength = (int) Math.min(stride, body - index * stride);
+
+    if (boxlength < MAC_BYTES)
+      throw new IOException("Encrypted file is truncated");
+
+    int length = boxlength - MAC_BYTES;
+
+    if (out.remaining() < length)
+      throw new BufferOverflowException();
+
+    BufferArena arena = BufferArena.shared();
+    byte[] box = arena.acquire(boxlength);
+
+    try {
+      readFully(in, ByteBuffer.wrap(box, 0, boxlength), HEADER_BYTES + index * stride);
+
+      if (xsalsa20poly1305.crypto_secretbox_open_easy(box, MAC_BYTES, box, 0, boxlength, nonce(header.nonce, index, index == chunks - 1), key) != 0)
+        throw new IOException("Chunk " + index + " failed to verify");
+
+      out.put(box, MAC_BYTES, length);
+    } finally {
+      arena.release(box);
+    }
+
+    return length;
+  }
+
+  private void run(FileChannel in, FileChannel out, long length, long chunks, int chunksize, byte[] filenonce, boolean open) throws IOException {
+    long pertask = Math.max(1, Math.min(WINDOW / chunksize, (chunks + 4L * pool.getParallelism() - 1) / (4L * pool.getParallelism())));
+    List<window_task> tasks = new ArrayList<>();
+
+    for (long first = 0; first < chunks; first += pertask)
+      tasks.add(new window_task(in, out, length, first, Math.min(chunks, first + pertask), chunks, chunksize, filenonce, key, open));
+
+    try {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  static long chunks(long length, int chunksize) {
+    return Math.max(1, (length + chunksize - 1) / chunksize);
+  }
+
+  static byte[] nonce(byte[] filenonce, long index, boolean last) {
+    byte[] nonce = new byte[24];
+    long word = last ? index | Long.MIN_VALUE : index;
+
+    System.arraycopy(filenonce, 0, nonce, 0, 16);
+
+    for (int i = 0; i < 8; i++)
+      nonce[16 + i] = (byte) (word >>> (8 * i));
+
+    return nonce;
+  }
+
+  private static Header readHeader(FileChannel in) throws IOException {
+    if (in.size() < HEADER_BYTES)
+      throw new IOException("Not an encrypted file");
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(in, header, 0);
+
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header.get(i) != MAGIC[i])
+        throw new IOException("Not an encrypted file");
+    }
+
+    int chunksize = (header.get(4) & 0xff) | (header.get(5) & 0xff) << 8 | (header.get(6) & 0xff) << 16 | (header.get(7) & 0xff) << 24;
+
+    if (chunksize <= 0 || chunksize > MAX_CHUNK_SIZE)
+      throw new IOException("Chunk size out of range");
+
+    byte[] nonce = new byte[16];
+    header.position(8);
+    header.get(nonce);
+
+    return new Header(chunksize, nonce);
+  }
+
+  private static void putInt(ByteBuffer buffer, int offset, int value) {
+    for (int i = 0; i < 4; i++)
+      buffer.put(offset + i, (byte) (value >>> (8 * i)));
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+
+      if (read < 0)
+        throw new IOException("Encrypted file is truncated");
+
+      position += read;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining())
+      position += channel.write(buffer, position);
+  }
+
+  private static final class Header {
+    final int chunksize;
+    final byte[] nonce;
+
+    Header(int chunksize, byte[] nonce) {
+      this.chunksize = chunksize;
+      this.nonce = nonce;
+    }
+  }
+
+  /*
+   * Boxes or opens chunks first to last - 1, mapping the plaintext and ciphertext ranges they
+   * cover. Each chunk is copied into heap scratch and processed there, which is much faster
+   * than working on the mapped buffers a byte at a time.
+   */
+  private static final class window_task extends RecursiveAction {
+    private final FileChannel in;
+    private final FileChannel out;
+    private final long length;
+    private final long first;
+    private final long last;
+    private final long chunks;
+    private final int chunksize;
+    private final byte[] filenonce;
+    private final byte[] key;
+    private final boolean open;
+
+    window_task(FileChannel in, FileChannel out, long length, long first, long last, long chunks, int chunksize, byte[] filenonce, byte[] key, boolean open) {
+      this.in = in;
+      this.out = out;
+      this.length = length;
+      this.first = first;
+      this.last = last;
+      this.chunks = chunks;
+      this.chunksize = chunksize;
+      this.filenonce = filenonce;
+      this.key = key;
+      this.open = open;
+    }
+
+    @Override
+    protected void compute() {
+      long plainstart = first * chunksize;
+      long plainend = Math.min(length, last * chunksize);
+      long boxstart = HEADER_BYTES + first * (chunksize + MAC_BYTES);
+      long boxend = HEADER_BYTES + (last - 1) * (chunksize + MAC_BYTES) + MAC_BYTES + (plainend - (last - 1) * chunksize);
+      int plainlength = (int) (plainend - plainstart);
+      int boxlength = (int) (boxend - boxstart);
+
+      try {
+        MappedByteBuffer plain, box;
+
+        if (open) {
+          box = in.map(FileChannel.MapMode.READ_ONLY, boxstart, boxlength);
+          plain = out.map(FileChannel.MapMode.READ_WRITE, plainstart, plainlength);
+        } else {
+          plain = in.map(FileChannel.MapMode.READ_ONLY, plainstart, plainlength);
+          box = out.map(FileChannel.MapMode.READ_WRITE, boxstart, boxlength);
+        }
+
+        process(plain, box);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void process(ByteBuffer plain, ByteBuffer box) throws IOException {
+      BufferArena arena = BufferArena.shared();
+      byte[] c = arena.acquire((int) Math.min(chunksize, length - first * chunksize) + MAC_BYTES);
+
+      // boxed and opened in place, the plaintext following the authenticator
+      try {
+        for (long i = first; i < last; i++) {
+          int mlen = (int) Math.min(chunksize, length - i * chunksize);
+          byte[] nonce = nonce(filenonce, i, i == chunks - 1);
+
+          if (open) {
+            box.get(c, 0, mlen + MAC_BYTES);
+
+            if (xsalsa20poly1305.crypto_secretbox_open_easy(c, MAC_BYTES, c, 0, mlen + MAC_BYTES, nonce, key) != 0)
+              throw new IOException("Chunk " + i + " failed to verify");
+
+            plain.put(c, MAC_BYTES, mlen);
+          } else {
+            plain.get(c, MAC_BYTES, mlen);
+            xsalsa20poly1305.crypto_secretbox_easy(c, 0, c, MAC_BYTES, mlen, nonce, key);
+            box.put(c, 0, mlen + MAC_BYTES);
+          }
+        }
+      } finally {
+        arena.release(c);
+      }
+    }
+  }
+}
@@ -0,0 +1,178 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.BufferArena;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decrypts a stream written by {@link NaClOutputStream}. Frames are read one at a time into a
+ * single buffer and only handed out once they have been verified, so no unauthenticated
+ * plaintext is ever returned and memory use is bounded by the frame size. Reaching the end of
+ * the underlying stream before the final frame, or a frame that fails to verify, raises an
+ * IOException.
+ *
+ * Instances are not thread safe.
+ */
+public class NaClInputStream extends InputStream {
+  private final InputStream in;
+  private final byte[] key;
+  private final byte[] streamnonce = new byte[16];
+  private int framesize;
+  private byte[] buffer;
+  private int position;
+  private int limit;
+  private long index;
+  private boolean last;
+  private boolean closed;
+
+  public NaClInputStream(InputStream in, NaCl nacl) {
+    this.in = in;
+    this.key = nacl.precomputed;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill())
+      return -1;
+
+    return buffer[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if ((off | len | (b.length - off - len)) < 0)
+      throw new IndexOutOfBoundsException();
+
+    if (len == 0)
+      return 0;
+
+    if (!fill())
+      return -1;
+
+    int chunk = Math.min(len, limit - position);
+
+    System.arraycopy(buffer, position, b, off, chunk);
+    position += chunk;
+
+    return chunk;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return closed || buffer == null ? 0 : limit - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+
+    closed = true;
+
+    if (buffer != null)
+      BufferArena.shared().release(buffer);
+
+    in.close();
+  }
+
+  /*
+   * Makes sure there are verified bytes left in the buffer, reading frames as needed, and
+   * returns false at the end of the stream.
+   */
+  private boolean fill() throws IOException {
+    if (closed)
+      throw new IOException("Stream closed");
+
+    if (buffer == null)
+      readHeader();
+
+    while (position == limit) {
+      if (last)
+        return false;
+
+      readFrame();
+    }
+
+    return true;
+  }
+
+  private void readHeader() throws IOException {
+    byte[] header = new byte[NaClOutputStream.HEADER_BYTES];
+
+    readFully(header, 0, header.length);
+
+    for (int i = 0; i < 4; i++) {
+      if (header[i] != NaClOutputStream.MAGIC[i])
+        throw new IOException("Not an encrypted stream");
+    }
+
+    framesize = NaClOutputStream.getInt(header, 4);
+
+    if (framesize <= 0 || framesize > NaClOutputStream.MAX_FRAME_SIZE)
+      throw new IOException("Frame size out of range");
+
+    System.arraycopy(header, 8, streamnonce, 0, 16);
+    buffer = BufferArena.shared().acquire(NaClOutputStream.FRAME_OVERHEAD + framesize);
+  }
+
+  private void readFrame() throws IOException {
+    readFully(buffer, 0, 4);
+
+    int word = NaClOutputStream.getInt(buffer, 0);
+    int length = word & Integer.MAX_VALUE;
+    boolean end = word < 0;
+
+    if (length > framesize)
+      throw new IOException("Frame too long");
+
+    readFully(buffer, 4, NaClFile.MAC_BYTES + length);
+
+    if (xsalsa20poly1305.crypto_secretbox_open_easy(buffer, NaClOutputStream.FRAME_OVERHEAD, buffer, 4, NaClFile.MAC_BYTES + length, NaClFile.nonce(streamnonce, index++, end), key) != 0)
+      throw new IOException("Frame " + (index - 1) + " failed to verify");
+
+    position = NaClOutputStream.FRAME_OVERHEAD;
+    limit = position + length;
+    last = end;
+  }
+
+  private void readFully(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int read = in.read(b, off, len);
+
+      if (read < 0)
+        throw new IOException("Encrypted stream is truncated");
+
+      off += read;
+      len -= read;
+    }
+  }
+}
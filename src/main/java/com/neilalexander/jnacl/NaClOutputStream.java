@@ -0,0 +1,185 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.BufferArena;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+
+/**
+ * Encrypts everything written to it as a sequence of secretbox frames under the key of a
+ * {@link NaCl} instance, so data of any length can be encrypted on the fly in a fixed amount of
+ * memory. Read it back with {@link NaClInputStream}.
+ *
+ * The stream starts with a 24 byte header laid out as in {@link NaClFile}: the magic "NaCS", the
+ * frame size and a random 16 byte stream nonce. Each frame is a 4 byte little endian word holding
+ * the plaintext length, with the top bit set on the final frame, then a 16 byte authenticator and
+ * the ciphertext. Frames are numbered and boxed with nonces built as for file chunks, so a
+ * reader notices frames being dropped, reordered or cut off. A frame is sealed whenever the
+ * buffer fills up or on flush, and close always writes a final frame, possibly empty.
+ *
+ * Instances are not thread safe.
+ */
+public class NaClOutputStream extends OutputStream {
+  static final byte[] MAGIC = {'N', 'a', 'C', 'S'};
+  static final int HEADER_BYTES = 24;
+  static final int FRAME_OVERHEAD = 4 + NaClFile.MAC_BYTES;
+
+  /** 64 KiB less the frame overhead, so a whole frame fills one pooled buffer exactly. */
+  public static final int DEFAULT_FRAME_SIZE = (1 << 16) - FRAME_OVERHEAD;
+  static final int MAX_FRAME_SIZE = 1 << 24;
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private final OutputStream out;
+  private final byte[] key;
+  private final byte[] streamnonce = new byte[16];
+  private final int framesize;
+  private final byte[] buffer;
+  private int used;
+  private long index;
+  private boolean started;
+  private boolean closed;
+
+  public NaClOutputStream(OutputStream out, NaCl nacl) {
+    this(out, nacl, DEFAULT_FRAME_SIZE);
+  }
+
+  /**
+   * @param framesize the most plaintext bytes sealed into one frame, and so held in memory; the
+   *     buffer behind it is a power of two, so a size that leaves room for the 20 bytes of frame
+   *     overhead wastes the least
+   */
+  public NaClOutputStream(OutputStream out, NaCl nacl, int framesize) {
+    if (framesize <= 0 || framesize > MAX_FRAME_SIZE)
+      throw new IllegalArgumentException("Frame size out of range");
+
+    this.out = out;
+    this.key = nacl.precomputed;
+    this.framesize = framesize;
+    this.buffer = BufferArena.shared().acquire(FRAME_OVERHEAD + framesize);
+    random.nextBytes(streamnonce);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+
+    if (used == framesize)
+      seal(false);
+
+    buffer[FRAME_OVERHEAD + used++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+
+    if ((off | len | (b.length - off - len)) < 0)
+      throw new IndexOutOfBoundsException();
+
+    while (len > 0) {
+      if (used == framesize)
+        seal(false);
+
+      int chunk = Math.min(len, framesize - used);
+
+      System.arraycopy(b, off, buffer, FRAME_OVERHEAD + used, chunk);
+      used += chunk;
+      off += chunk;
+      len -= chunk;
+    }
+  }
+
+  /**
+   * Seals whatever has been written since the last frame into a frame of its own, and flushes
+   * the underlying stream.
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+
+    if (used > 0)
+      seal(false);
+
+    out.flush();
+  }
+
+  /**
+   * Writes the final frame and closes the underlying stream. A stream that is never closed
+   * reads back as truncated.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+
+    try {
+      seal(true);
+      out.flush();
+    } finally {
+      closed = true;
+      BufferArena.shared().release(buffer);
+      out.close();
+    }
+  }
+
+  private void seal(boolean last) throws IOException {
+    if (!started) {
+      byte[] header = new byte[HEADER_BYTES];
+
+      System.arraycopy(MAGIC, 0, header, 0, 4);
+      putInt(header, 4, framesize);
+      System.arraycopy(streamnonce, 0, header, 8, 16);
+      out.write(header);
+      started = true;
+    }
+
+    putInt(buffer, 0, last ? used | Integer.MIN_VALUE : used);
+    xsalsa20poly1305.crypto_secretbox_easy(buffer, 4, buffer, FRAME_OVERHEAD, used, NaClFile.nonce(streamnonce, index++, last), key);
+    out.write(buffer, 0, FRAME_OVERHEAD + used);
+    used = 0;
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed)
+      throw new IOException("Stream closed");
+  }
+
+  static void putInt(byte[] buf, int offset, int value) {
+    for (int i = 0; i < 4; i++)
+      buf[offset + i] = (byte) (value >>> (8 * i));
+  }
+
+  static int getInt(byte[] buf, int offset) {
+    return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8 | (buf[offset + 2] & 0xff) << 16 | (buf[offset + 3] & 0xff) << 24;
+  }
+}
@@ -0,0 +1,282 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out unique 24 byte nonces for a {@link NaCl} instance without locking. Every nonce is
+ * a 16 byte prefix followed by a 64 bit little endian counter; the strategies differ in how the
+ * counter is shared between threads. Use one sequencer per key and sending side. Both ends of
+ * a connection share the same box key, so each should start from its own random prefix.
+ *
+ * To carry on after a restart without reusing nonces, persist {@link #prefix()} and
+ * {@link #highWaterMark()} from time to time and resume with {@link #counter(byte[], long)}
+ * or {@link #striped(byte[], long)}. Every nonce handed out so far has a counter below the
+ * mark, though not every counter below it has been used. Counters are limited to 2^63;
+ * running out raises an IllegalStateException rather than ever repeating a nonce.
+ */
+public abstract class NonceSequencer {
+  public static final int NONCE_BYTES = 24;
+  static final int PREFIX_BYTES = 16;
+
+  /* counters each thread takes from the shared one at a time in the striped strategy */
+  static final int STRIPE = 1024;
+
+  /* longs between the counter and its neighbours, so it has a cache line to itself */
+  private static final int PAD = 8;
+
+  private static final SecureRandom random = new SecureRandom();
+
+  NonceSequencer() {
+  }
+
+  /**
+   * A random prefix and one shared counter, advanced by a single atomic add per nonce. The
+   * simplest choice, and fine until many threads contend for the counter.
+   */
+  public static NonceSequencer counter() {
+    return new Counter(randomPrefix(), 0);
+  }
+
+  public static NonceSequencer counter(byte[] prefix, long highwatermark) {
+    return new Counter(checkPrefix(prefix), highwatermark);
+  }
+
+  /**
+   * A random prefix and a shared counter from which each thread reserves a range of
+   * {@value #STRIPE} counters at a time, then hands them out with no shared writes at all.
+   * Nonces from different threads interleave out of order.
+   */
+  public static NonceSequencer striped() {
+    return new Striped(randomPrefix(), 0);
+  }
+
+  public static NonceSequencer striped(byte[] prefix, long highwatermark) {
+    return new Striped(checkPrefix(prefix), highwatermark);
+  }
+
+  /**
+   * A shared counter as for {@link #counter()}, but starting over under a fresh random
+   * prefix every interval nonces, so no single prefix is used for long and nothing needs
+   * persisting to stay unique across restarts.
+   */
+  public static NonceSequencer hybrid(long interval) {
+    if (interval <= 0)
+      throw new IllegalArgumentException("Refresh interval must be positive");
+
+    return new Hybrid(interval);
+  }
+
+  /**
+   * Writes the next nonce to the 24 bytes at nonce[offset].
+   *
+   * @throws IllegalStateException if the counter space is used up
+   */
+  public abstract void next(byte[] nonce, int offset);
+
+  public byte[] next() {
+    byte[] nonce = new byte[NONCE_BYTES];
+    next(nonce, 0);
+    return nonce;
+  }
+
+  /**
+   * The prefix of the nonces currently being handed out.
+   */
+  public abstract byte[] prefix();
+
+  /**
+   * A counter value above every counter handed out so far under the current prefix.
+   */
+  public abstract long highWaterMark();
+
+  static void write(byte[] nonce, int offset, byte[] prefix, long counter) {
+    if (counter < 0)
+      throw new IllegalStateException("Nonce counter exhausted");
+
+    System.arraycopy(prefix, 0, nonce, offset, PREFIX_BYTES);
+
+    for (int i = 0; i < 8; i++)
+      nonce[offset + PREFIX_BYTES + i] = (byte) (counter >>> (8 * i));
+  }
+
+  private static byte[] randomPrefix() {
+    byte[] prefix = new byte[PREFIX_BYTES];
+    random.nextBytes(prefix);
+    return prefix;
+  }
+
+  private static byte[] checkPrefix(byte[] prefix) {
+    if (prefix.length != PREFIX_BYTES)
+      throw new IllegalArgumentException("Prefix must be 16 bytes");
+
+    return prefix.clone();
+  }
+
+  /*
+   * A counter in the middle of an array of 2 * PAD + 1 longs, so that no other hot data
+   * shares its cache line.
+   */
+  private static final class PaddedCounter {
+    private final AtomicLongArray cells = new AtomicLongArray(2 * PAD + 1);
+
+    PaddedCounter(long start) {
+      cells.set(PAD, start);
+    }
+
+    long getAndAdd(long delta) {
+      return cells.getAndAdd(PAD, delta);
+    }
+
+    long get() {
+      return cells.get(PAD);
+    }
+  }
+
+  private static final class Counter extends NonceSequencer {
+    private final byte[] prefix;
+    private final PaddedCounter counter;
+
+    Counter(byte[] prefix, long start) {
+      this.prefix = prefix;
+      this.counter = new PaddedCounter(start);
+    }
+
+    @Override
+    public void next(byte[] nonce, int offset) {
+      write(nonce, offset, prefix, counter.getAndAdd(1));
+    }
+
+    @Override
+    public byte[] prefix() {
+      return prefix.clone();
+    }
+
+    @Override
+    public long highWaterMark() {
+      long mark = counter.get();
+      return mark < 0 ? Long.MAX_VALUE : mark;
+    }
+  }
+
+  private static final class Striped extends NonceSequencer {
+    private final byte[] prefix;
+    private final PaddedCounter reserved;
+    private final ThreadLocal<long[]> ranges = new ThreadLocal<long[]>() {
+      @Override
+      protected long[] initialValue() {
+        // next and end of the thread's current range, padded out to a cache line
+        return new long[PAD];
+      }
+    };
+
+    Striped(byte[] prefix, long start) {
+      this.prefix = prefix;
+      this.reserved = new PaddedCounter(start);
+    }
+
+    @Override
+    public void next(byte[] nonce, int offset) {
+      long[] range = ranges.get();
+
+      if (range[0] == range[1]) {
+        long start = reserved.getAndAdd(STRIPE);
+
+        if (start < 0 || start + STRIPE < 0)
+          throw new IllegalStateException("Nonce counter exhausted");
+
+        range[0] = start;
+        range[1] = start + STRIPE;
+      }
+
+      write(nonce, offset, prefix, range[0]++);
+    }
+
+    @Override
+    public byte[] prefix() {
+      return prefix.clone();
+    }
+
+    @Override
+    public long highWaterMark() {
+      long mark = reserved.get();
+      return mark < 0 ? Long.MAX_VALUE : mark;
+    }
+  }
+
+  private static final class Hybrid extends NonceSequencer {
+    private final long interval;
+    private final AtomicReference<Epoch> epoch;
+
+    Hybrid(long interval) {
+      this.interval = interval;
+      this.epoch = new AtomicReference<>(new Epoch(randomPrefix()));
+    }
+
+    @Override
+    public void next(byte[] nonce, int offset) {
+      while (true) {
+        Epoch current = epoch.get();
+        long counter = current.counter.getAndAdd(1);
+
+        if (counter < interval) {
+          write(nonce, offset, current.prefix, counter);
+          return;
+        }
+
+        // the first thread past the end installs the next prefix; the others retry with it
+        if (counter == interval)
+          epoch.compareAndSet(current, new Epoch(randomPrefix()));
+        else
+          Thread.yield();
+      }
+    }
+
+    @Override
+    public byte[] prefix() {
+      return epoch.get().prefix.clone();
+    }
+
+    @Override
+    public long highWaterMark() {
+      return Math.min(interval, epoch.get().counter.get());
+    }
+
+    private static final class Epoch {
+      final byte[] prefix;
+      final PaddedCounter counter = new PaddedCounter(0);
+
+      Epoch(byte[] prefix) {
+        this.prefix = prefix;
+      }
+    }
+  }
+}
@@ -0,0 +1,322 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of scratch memory, so that encrypting and decrypting does not leave a trail of short
+ * lived arrays for the garbage collector.
+ *
+ * Heap arrays and direct buffers are handed out in power of two size classes from 64 bytes to
+ * 16 MiB, each class holding a bounded number of idle buffers in a lock-free slot array. A
+ * buffer is wiped when it is released, as it may have held plaintext or key material; larger
+ * requests, and releases into a full class, simply fall through to the garbage collector.
+ *
+ * The primitives themselves keep their fixed size working state (a Salsa20Context, the
+ * poly1305 state and a few short key and tag buffers) in a per-thread set borrowed from here
+ * for the length of each call; a nested call on the same thread gets a fresh set instead.
+ * These borrowings are counted as hits and misses of the shared arena.
+ */
+public final class BufferArena
+{
+	static final int MIN_SHIFT = 6;
+	static final int MAX_SHIFT = 24;
+
+	/* idle bytes each size class may hold, and the most buffers it holds at any size */
+	private static final int CLASS_BYTES = 4 << 20;
+	private static final int MAX_DEPTH = 64;
+
+	private static final BufferArena shared = new BufferArena();
+	private static final ThreadLocal<scratch> local = new ThreadLocal<scratch>();
+
+	private final AtomicReferenceArray<byte[]>[] arrays;
+	private final AtomicReferenceArray<ByteBuffer>[] buffers;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	@SuppressWarnings("unchecked")
+	public BufferArena()
+	{
+		int classes = MAX_SHIFT - MIN_SHIFT + 1;
+
+		arrays = new AtomicReferenceArray[classes];
+		buffers = new AtomicReferenceArray[classes];
+
+		for (int i = 0; i < classes; ++i)
+		{
+			int depth = Math.max(1, Math.min(MAX_DEPTH, CLASS_BYTES >>> (MIN_SHIFT + i)));
+
+			arrays[i] = new AtomicReferenceArray<byte[]>(depth);
+			buffers[i] = new AtomicReferenceArray<ByteBuffer>(depth);
+		}
+	}
+
+	/**
+	 * The arena used by the primitives and the NaCl facade classes.
+	 */
+	public static BufferArena shared()
+	{
+		return shared;
+	}
+
+	/**
+	 * An array of at least length bytes, all zero. It may be longer than asked for.
+	 */
+	public byte[] acquire(int length)
+	{
+		int c = sizeclass(length);
+
+		if (c >= 0)
+		{
+			byte[] b = take(arrays[c]);
+
+			if (b != null)
+				return b;
+		}
+
+		misses.increment();
+		return new byte[c >= 0 ? 1 << (c + MIN_SHIFT) : length];
+	}
+
+	/**
+	 * Wipes b and keeps it for reuse if there is room. b must not be used afterwards.
+	 */
+	public void release(byte[] b)
+	{
+		Arrays.fill(b, (byte) 0);
+
+		int c = exactclass(b.length);
+
+		if (c >= 0)
+			give(arrays[c], b);
+	}
+
+	/**
+	 * A direct buffer with at least length bytes of capacity, all zero, with its position at
+	 * zero and its limit at length. Its byte order is big endian.
+	 */
+	public ByteBuffer acquireDirect(int length)
+	{
+		int c = sizeclass(length);
+
+		if (c >= 0)
+		{
+			ByteBuffer b = take(buffers[c]);
+
+			if (b != null)
+			{
+				b.limit(length);
+				return b;
+			}
+		}
+
+		misses.increment();
+
+		ByteBuffer b = ByteBuffer.allocateDirect(c >= 0 ? 1 << (c + MIN_SHIFT) : length);
+		b.limit(length);
+		return b;
+	}
+
+	/**
+	 * Wipes the whole capacity of b and keeps it for reuse if there is room. b must not be
+	 * used afterwards.
+	 */
+	public void release(ByteBuffer b)
+	{
+		int capacity = b.capacity();
+		int i = 0;
+
+		b.clear();
+
+		for (; i + 8 <= capacity; i += 8)
+			b.putLong(i, 0);
+
+		for (; i < capacity; ++i)
+			b.put(i, (byte) 0);
+
+		int c = exactclass(capacity);
+
+		if (c >= 0 && b.isDirect())
+		{
+			b.order(ByteOrder.BIG_ENDIAN);
+			give(buffers[c], b);
+		}
+	}
+
+	/**
+	 * Requests served from a pooled buffer, or by borrowing a thread's primitive scratch.
+	 */
+	public long hits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Requests that had to allocate.
+	 */
+	public long misses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * The bytes currently held idle in the pool.
+	 */
+	public long idleBytes()
+	{
+		long total = 0;
+
+		for (int c = 0; c < arrays.length; ++c)
+		{
+			for (int i = 0; i < arrays[c].length(); ++i)
+			{
+				if (arrays[c].get(i) != null)
+					total += 1 << (c + MIN_SHIFT);
+
+				if (buffers[c].get(i) != null)
+					total += 1 << (c + MIN_SHIFT);
+			}
+		}
+
+		return total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BufferArena[hits=" + hits() + ", misses=" + misses() + ", idle=" + idleBytes() + "]";
+	}
+
+	private <T> T take(AtomicReferenceArray<T> slots)
+	{
+		int depth = slots.length();
+		int start = (int)(Thread.currentThread().getId() % depth);
+
+		for (int n = 0; n < depth; ++n)
+		{
+			int i = start + n < depth ? start + n : start + n - depth;
+			T b = slots.get(i);
+
+			if (b != null && slots.compareAndSet(i, b, null))
+			{
+				hits.increment();
+				return b;
+			}
+		}
+
+		return null;
+	}
+
+	private static <T> void give(AtomicReferenceArray<T> slots, T b)
+	{
+		int depth = slots.length();
+		int start = (int)(Thread.currentThread().getId() % depth);
+
+		for (int n = 0; n < depth; ++n)
+		{
+			int i = start + n < depth ? start + n : start + n - depth;
+
+			if (slots.get(i) == null && slots.compareAndSet(i, null, b))
+				return;
+		}
+	}
+
+	/* the smallest class holding length bytes, or -1 if it is too long to pool */
+	private static int sizeclass(int length)
+	{
+		if (length < 0)
+			throw new IllegalArgumentException("Negative length");
+
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1));
+
+		return shift <= MAX_SHIFT ? shift - MIN_SHIFT : -1;
+	}
+
+	/* the class of exactly length bytes, or -1 if it is not one of ours */
+	private static int exactclass(int length)
+	{
+		if (Integer.bitCount(length) != 1)
+			return -1;
+
+		int shift = Integer.numberOfTrailingZeros(length);
+
+		return shift >= MIN_SHIFT && shift <= MAX_SHIFT ? shift - MIN_SHIFT : -1;
+	}
+
+	/*
+	 * Borrows the calling thread's primitive working state; give it back with release, which
+	 * wipes it.
+	 */
+	static scratch scratch()
+	{
+		scratch s = local.get();
+
+		if (s == null)
+		{
+			s = new scratch();
+			local.set(s);
+			shared.misses.increment();
+		}
+		else if (s.busy)
+		{
+			s = new scratch();
+			shared.misses.increment();
+		}
+		else
+			shared.hits.increment();
+
+		s.busy = true;
+		return s;
+	}
+
+	static final class scratch
+	{
+		final Salsa20Context ctx = new Salsa20Context();
+		final int[] st = new int[poly1305.STATEWORDS];
+		final byte[] key = new byte[32];
+		final byte[] expected = new byte[16];
+		final byte[] correct = new byte[16];
+		private boolean busy;
+
+		void release()
+		{
+			ctx.wipe();
+			Arrays.fill(st, 0);
+			Arrays.fill(key, (byte) 0);
+			Arrays.fill(expected, (byte) 0);
+			Arrays.fill(correct, (byte) 0);
+
+			busy = false;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of pre-generated crypto_box keypairs, so that handshakes do not pay for the
+ * scalar multiplication on the request thread. Install one with
+ * curve25519xsalsa20poly1305.crypto_box_set_keypair_pool, or take keys from it directly.
+ *
+ * Minimum priority daemon threads keep the pool full, sleeping while it is. Each keypair is
+ * handed out once and wiped from the pool as it is taken. If the pool has run dry the keypair
+ * is generated on the calling thread instead, and counted as a miss. Close the pool to stop
+ * the threads and wipe the keys still waiting in it.
+ */
+public final class KeyPairPool implements AutoCloseable
+{
+	private final ArrayBlockingQueue<keypair> keys;
+	private final SecureRandom random = new SecureRandom();
+	private final Thread[] refillers;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	/* when the pool last dropped below capacity, or zero while it is full */
+	private final AtomicLong shortsince = new AtomicLong();
+	private volatile boolean closed;
+
+	public KeyPairPool(int capacity)
+	{
+		this(capacity, 1);
+	}
+
+	public KeyPairPool(int capacity, int threads)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Pool capacity must be positive");
+
+		if (threads < 1)
+			throw new IllegalArgumentException("Refill thread count must be positive");
+
+		this.keys = new ArrayBlockingQueue<keypair>(capacity);
+		shortened();
+		this.refillers = new Thread[threads];
+
+		for (int i = 0; i < threads; ++i)
+		{
+			refillers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					refill();
+				}
+			}, "jnacl-keypair-refill-" + i);
+			refillers[i].setDaemon(true);
+			refillers[i].setPriority(Thread.MIN_PRIORITY);
+			refillers[i].start();
+		}
+	}
+
+	/**
+	 * Fills pk and sk with a keypair that has not been handed out before.
+	 */
+	public int take(byte[] pk, byte[] sk)
+	{
+		keypair k = keys.poll();
+
+		if (k == null)
+		{
+			misses.increment();
+			return curve25519xsalsa20poly1305.crypto_box_keypair(pk, sk, random);
+		}
+
+		shortened();
+		hits.increment();
+		System.arraycopy(k.pk, 0, pk, 0, 32);
+		System.arraycopy(k.sk, 0, sk, 0, 32);
+		k.wipe();
+
+		return 0;
+	}
+
+	/**
+	 * Stops the refill threads and wipes the keys left in the pool. Later calls to take
+	 * generate keypairs on the calling thread.
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+
+		for (Thread t : refillers)
+			t.interrupt();
+
+		for (Thread t : refillers)
+		{
+			try
+			{
+				t.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		keypair k;
+		while ((k = keys.poll()) != null)
+			k.wipe();
+
+		shortened();
+	}
+
+	public int capacity()
+	{
+		return keys.size() + keys.remainingCapacity();
+	}
+
+	/**
+	 * Keypairs ready to be taken.
+	 */
+	public int depth()
+	{
+		return keys.size();
+	}
+
+	public long hits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Keypairs generated on the calling thread because the pool was empty.
+	 */
+	public long misses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * How long the pool has been short of capacity since it was last full, or zero if it is
+	 * full now.
+	 */
+	public long refillLag(TimeUnit unit)
+	{
+		long since = shortsince.get();
+
+		if (since == 0 || keys.remainingCapacity() == 0)
+			return 0;
+
+		return unit.convert(System.nanoTime() - since, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "KeyPairPool[depth=" + depth() + ", capacity=" + capacity() + ", hits=" + hits() + ", misses=" + misses() + ", lag=" + refillLag(TimeUnit.MILLISECONDS) + "ms]";
+	}
+
+	private void refill()
+	{
+		while (!closed)
+		{
+			keypair k = new keypair();
+			curve25519xsalsa20poly1305.crypto_box_keypair(k.pk, k.sk, random);
+
+			try
+			{
+				keys.put(k);
+			}
+			catch (InterruptedException e)
+			{
+				k.wipe();
+				return;
+			}
+
+			long since = shortsince.get();
+
+			if (since != 0 && keys.remainingCapacity() == 0 && shortsince.compareAndSet(since, 0))
+			{
+				/* a take between the check and the reset would otherwise go unrecorded */
+				if (keys.remainingCapacity() != 0)
+					shortened();
+			}
+		}
+	}
+
+	/*
+	 * Records the moment the pool dropped below capacity, unless it was already short, in
+	 * which case the lag keeps counting from the earlier moment.
+	 */
+	private void shortened()
+	{
+		long now = System.nanoTime();
+		shortsince.compareAndSet(0, now == 0 ? 1 : now);
+	}
+
+	private static final class keypair
+	{
+		final byte[] pk = new byte[32];
+		final byte[] sk = new byte[32];
+
+		void wipe()
+		{
+			Arrays.fill(pk, (byte) 0);
+			Arrays.fill(sk, (byte) 0);
+		}
+	}
+}
@@ -0,0 +1,452 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Always-on counters for the primitives: operations, bytes, authentication failures and a
+ * latency histogram for each kind of secretbox operation and for key agreement, next to the
+ * statistics of the installed SharedKeyCache and KeyPairPool and of the shared BufferArena.
+ *
+ * Recording is lock-free and allocation free: every counter is a LongAdder, and latencies go
+ * into power of two buckets, so that percentiles are accurate to within a factor of two.
+ * Metrics are published over JMX as com.neilalexander.jnacl:type=Metrics as soon as the
+ * class is first used, and can be read directly through {@link #get()}. Run with the system
+ * property jnacl.metrics set to false to start with recording disabled and the MBean
+ * unregistered; recording can also be switched at any time with {@link #setEnabled}.
+ */
+public final class Metrics implements MetricsMXBean
+{
+	static final int BOX = 0;
+	static final int OPEN = 1;
+	static final int VERIFY = 2;
+	static final int BOX_BATCH = 3;
+	static final int OPEN_BATCH = 4;
+	static final int BOX_PARALLEL = 5;
+	static final int OPEN_PARALLEL = 6;
+	static final int BEFORENM = 7;
+
+	private static final String[] names = { "box", "open", "verify", "box batch", "open batch", "box parallel", "open parallel", "beforenm" };
+
+	/* bucket i counts latencies below 2^i nanoseconds and at least half that */
+	static final int BUCKETS = 40;
+
+	private static final long OFF = Long.MIN_VALUE;
+
+	public static final String OBJECT_NAME = "com.neilalexander.jnacl:type=Metrics";
+
+	private static final counters[] operations = new counters[names.length];
+	private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("jnacl.metrics", "true"));
+	private static final Metrics instance = new Metrics();
+
+	static
+	{
+		for (int i = 0; i < operations.length; ++i)
+			operations[i] = new counters();
+
+		if (enabled)
+			register();
+	}
+
+	private Metrics()
+	{
+	}
+
+	public static Metrics get()
+	{
+		return instance;
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server, unless it is there already.
+	 * Returns false if there is no management support in this runtime.
+	 */
+	public static boolean register()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(instance, new ObjectName(OBJECT_NAME));
+			return true;
+		}
+		catch (InstanceAlreadyExistsException e)
+		{
+			return true;
+		}
+		catch (Throwable e)
+		{
+			return false;
+		}
+	}
+
+	public static void unregister()
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+		}
+		catch (InstanceNotFoundException e)
+		{
+			/* not registered */
+		}
+		catch (Throwable e)
+		{
+			/* no management support */
+		}
+	}
+
+	static String name(int operation)
+	{
+		return names[operation];
+	}
+
+	/*
+	 * A start time for record, or OFF while recording is disabled.
+	 */
+	static long start()
+	{
+		return enabled ? System.nanoTime() : OFF;
+	}
+
+	static void record(int operation, long start, long length)
+	{
+		if (start == OFF)
+			return;
+
+		long nanos = System.nanoTime() - start;
+		counters o = operations[operation];
+
+		o.count.increment();
+		o.bytes.add(length);
+		o.nanos.add(nanos);
+		o.buckets[bucket(nanos)].increment();
+	}
+
+	static void failure(int operation)
+	{
+		if (enabled)
+			operations[operation].failures.increment();
+	}
+
+	static int bucket(long nanos)
+	{
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+	}
+
+	@Override
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled)
+	{
+		Metrics.enabled = enabled;
+	}
+
+	@Override
+	public Snapshot[] getOperations()
+	{
+		Snapshot[] snapshots = new Snapshot[operations.length];
+
+		for (int i = 0; i < operations.length; ++i)
+			snapshots[i] = new Snapshot(names[i], operations[i]);
+
+		return snapshots;
+	}
+
+	/**
+	 * The counters of one kind of operation, such as "box" or "open", or null if there is
+	 * no such operation.
+	 */
+	public Snapshot getOperation(String name)
+	{
+		for (int i = 0; i < names.length; ++i)
+		{
+			if (names[i].equals(name))
+				return new Snapshot(names[i], operations[i]);
+		}
+
+		return null;
+	}
+
+	@Override
+	public long getAuthenticationFailures()
+	{
+		long failures = 0;
+
+		for (counters o : operations)
+			failures += o.failures.sum();
+
+		return failures;
+	}
+
+	@Override
+	public long getSharedKeyCacheHits()
+	{
+		SharedKeyCache c = curve25519xsalsa20poly1305.crypto_box_get_cache();
+		return c == null ? 0 : c.hits();
+	}
+
+	@Override
+	public long getSharedKeyCacheMisses()
+	{
+		SharedKeyCache c = curve25519xsalsa20poly1305.crypto_box_get_cache();
+		return c == null ? 0 : c.misses();
+	}
+
+	@Override
+	public double getSharedKeyCacheHitRatio()
+	{
+		SharedKeyCache c = curve25519xsalsa20poly1305.crypto_box_get_cache();
+
+		if (c == null)
+			return 0;
+
+		long hits = c.hits();
+		long total = hits + c.misses();
+
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public int getSharedKeyCacheSize()
+	{
+		SharedKeyCache c = curve25519xsalsa20poly1305.crypto_box_get_cache();
+		return c == null ? 0 : c.size();
+	}
+
+	@Override
+	public long getBufferArenaHits()
+	{
+		return BufferArena.shared().hits();
+	}
+
+	@Override
+	public long getBufferArenaMisses()
+	{
+		return BufferArena.shared().misses();
+	}
+
+	@Override
+	public long getBufferArenaIdleBytes()
+	{
+		return BufferArena.shared().idleBytes();
+	}
+
+	@Override
+	public int getKeyPairPoolDepth()
+	{
+		KeyPairPool p = curve25519xsalsa20poly1305.crypto_box_get_keypair_pool();
+		return p == null ? 0 : p.depth();
+	}
+
+	@Override
+	public long getKeyPairPoolMisses()
+	{
+		KeyPairPool p = curve25519xsalsa20poly1305.crypto_box_get_keypair_pool();
+		return p == null ? 0 : p.misses();
+	}
+
+	@Override
+	public long getKeyPairPoolRefillLagMillis()
+	{
+		KeyPairPool p = curve25519xsalsa20poly1305.crypto_box_get_keypair_pool();
+		return p == null ? 0 : p.refillLag(TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void reset()
+	{
+		for (counters o : operations)
+			o.reset();
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder b = new StringBuilder("Metrics[");
+
+		for (int i = 0; i < operations.length; ++i)
+		{
+			if (i > 0)
+				b.append(", ");
+
+			b.append(names[i]).append('=').append(operations[i].count.sum());
+		}
+
+		return b.append(", failures=").append(getAuthenticationFailures()).append(']').toString();
+	}
+
+	/**
+	 * A point in time copy of the counters for one kind of operation. Batch calls count as
+	 * a single operation covering all of their messages.
+	 */
+	public static final class Snapshot
+	{
+		private final String operation;
+		private final long count;
+		private final long bytes;
+		private final long failures;
+		private final long nanos;
+		private final long[] histogram;
+
+		Snapshot(String operation, counters o)
+		{
+			this.operation = operation;
+			this.count = o.count.sum();
+			this.bytes = o.bytes.sum();
+			this.failures = o.failures.sum();
+			this.nanos = o.nanos.sum();
+			this.histogram = new long[BUCKETS];
+
+			for (int i = 0; i < BUCKETS; ++i)
+				histogram[i] = o.buckets[i].sum();
+		}
+
+		public String getOperation()
+		{
+			return operation;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * Message bytes processed, or for beforenm 32 bytes of shared key per public key.
+		 */
+		public long getBytes()
+		{
+			return bytes;
+		}
+
+		public long getFailures()
+		{
+			return failures;
+		}
+
+		public long getMeanNanos()
+		{
+			return count == 0 ? 0 : nanos / count;
+		}
+
+		public long getMedianNanos()
+		{
+			return percentile(0.5);
+		}
+
+		public long getP99Nanos()
+		{
+			return percentile(0.99);
+		}
+
+		public long getP999Nanos()
+		{
+			return percentile(0.999);
+		}
+
+		/**
+		 * Operation counts by latency; entry i counts operations that took at least 2^(i-1)
+		 * and less than 2^i nanoseconds, and the last entry everything slower.
+		 */
+		public long[] getHistogram()
+		{
+			return histogram.clone();
+		}
+
+		/**
+		 * An upper bound on the latency below which the fraction p of operations fall, to
+		 * within a factor of two.
+		 */
+		public long percentile(double p)
+		{
+			long total = 0;
+
+			for (long n : histogram)
+				total += n;
+
+			if (total == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(p * total);
+			long seen = 0;
+
+			for (int i = 0; i < BUCKETS; ++i)
+			{
+				seen += histogram[i];
+
+				if (seen >= rank && histogram[i] != 0)
+					return i == 0 ? 0 : 1L << i;
+			}
+
+			return 1L << (BUCKETS - 1);
+		}
+
+		@Override
+		public String toString()
+		{
+			return operation + "[count=" + count + ", bytes=" + bytes + ", failures=" + failures + ", mean=" + getMeanNanos() + "ns, p99<" + getP99Nanos() + "ns]";
+		}
+	}
+
+	static final class counters
+	{
+		final LongAdder count = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder failures = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+		counters()
+		{
+			for (int i = 0; i < BUCKETS; ++i)
+				buckets[i] = new LongAdder();
+		}
+
+		void reset()
+		{
+			count.reset();
+			bytes.reset();
+			failures.reset();
+			nanos.reset();
+
+			for (LongAdder b : buckets)
+				b.reset();
+		}
+	}
+}
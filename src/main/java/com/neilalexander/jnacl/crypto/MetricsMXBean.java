@@ -0,0 +1,77 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+/**
+ * The management interface of {@link Metrics}, registered as
+ * com.neilalexander.jnacl:type=Metrics.
+ */
+public interface MetricsMXBean
+{
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Counters and latencies for each kind of operation, in a fixed order.
+	 */
+	Metrics.Snapshot[] getOperations();
+
+	long getAuthenticationFailures();
+
+	/**
+	 * Shared key cache statistics, or zero when no cache is installed.
+	 */
+	long getSharedKeyCacheHits();
+
+	long getSharedKeyCacheMisses();
+
+	double getSharedKeyCacheHitRatio();
+
+	int getSharedKeyCacheSize();
+
+	long getBufferArenaHits();
+
+	long getBufferArenaMisses();
+
+	long getBufferArenaIdleBytes();
+
+	/**
+	 * Keypair pool statistics, or zero when no pool is installed.
+	 */
+	int getKeyPairPoolDepth();
+
+	long getKeyPairPoolMisses();
+
+	long getKeyPairPoolRefillLagMillis();
+
+	/**
+	 * Zeroes the operation counters and latency histograms.
+	 */
+	void reset();
+}
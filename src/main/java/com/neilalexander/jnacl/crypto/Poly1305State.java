@@ -0,0 +1,187 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental poly1305: a message can be authenticated in as many pieces as it arrives in,
+ * for instance a header and a payload held in separate buffers, without first joining them.
+ * Partial blocks are carried over between calls to update. The result is identical to
+ * poly1305.crypto_onetimeauth over the concatenated pieces.
+ *
+ * After finish or verify the key material is wiped, and the object can be reused for a new
+ * message by calling init. Until then update, finish and verify throw
+ * IllegalStateException, rather than authenticating with an all-zero key. Instances are not
+ * thread safe.
+ */
+public final class Poly1305State
+{
+	private final int[] st = new int[poly1305.STATEWORDS];
+	private final byte[] buffer = new byte[16];
+	private int leftover;
+	private boolean initialised;
+
+	public Poly1305State()
+	{
+	}
+
+	public Poly1305State(byte[] k)
+	{
+		init(k);
+	}
+
+	public void init(byte[] k)
+	{
+		poly1305.init(st, k);
+		leftover = 0;
+		initialised = true;
+	}
+
+	public void update(byte[] m, int moffset, int mlen)
+	{
+		check();
+
+		if (leftover > 0)
+		{
+			int want = Math.min(16 - leftover, mlen);
+
+			System.arraycopy(m, moffset, buffer, leftover, want);
+			leftover += want;
+			moffset += want;
+			mlen -= want;
+
+			if (leftover < 16)
+				return;
+
+			poly1305.blocks(st, buffer, 0, 16);
+			leftover = 0;
+		}
+
+		int full = mlen & ~15;
+
+		if (full > 0)
+		{
+			poly1305.blocks(st, m, moffset, full);
+			moffset += full;
+			mlen -= full;
+		}
+
+		if (mlen > 0)
+		{
+			System.arraycopy(m, moffset, buffer, 0, mlen);
+			leftover = mlen;
+		}
+	}
+
+	/*
+	 * m is read with absolute indexes, its position and limit are left untouched.
+	 */
+	public void update(ByteBuffer m, int moffset, int mlen)
+	{
+		check();
+
+		if (leftover > 0)
+		{
+			int want = Math.min(16 - leftover, mlen);
+
+			for (int i = 0; i < want; ++i)
+				buffer[leftover + i] = m.get(moffset + i);
+
+			leftover += want;
+			moffset += want;
+			mlen -= want;
+
+			if (leftover < 16)
+				return;
+
+			poly1305.blocks(st, buffer, 0, 16);
+			leftover = 0;
+		}
+
+		int full = mlen & ~15;
+
+		if (full > 0)
+		{
+			poly1305.blocks(st, m, moffset, full);
+			moffset += full;
+			mlen -= full;
+		}
+
+		for (int i = 0; i < mlen; ++i)
+			buffer[i] = m.get(moffset + i);
+
+		leftover = mlen;
+	}
+
+	public void finish(byte[] outv, int outvoffset)
+	{
+		check();
+
+		if (leftover > 0)
+			poly1305.blocks(st, buffer, 0, leftover);
+
+		poly1305.finish(st, outv, outvoffset);
+		wipe();
+	}
+
+	/*
+	 * Finishes the computation and compares the result with the authenticator at h in
+	 * constant time. Returns 0 if they match, -1 otherwise.
+	 */
+	public int verify(byte[] h, int hoffset)
+	{
+		byte[] correct = new byte[16];
+
+		finish(correct, 0);
+		int result = verify_16.crypto_verify(h, hoffset, correct);
+
+		for (int i = 0; i < 16; ++i)
+			correct[i] = 0;
+
+		return result;
+	}
+
+	private void check()
+	{
+		if (!initialised)
+			throw new IllegalStateException("Poly1305State used without init, or after finish");
+	}
+
+	private void wipe()
+	{
+		for (int i = 0; i < st.length; ++i)
+			st[i] = 0;
+
+		for (int i = 0; i < 16; ++i)
+			buffer[i] = 0;
+
+		leftover = 0;
+		initialised = false;
+	}
+}
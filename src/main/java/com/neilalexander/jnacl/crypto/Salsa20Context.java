@@ -0,0 +1,402 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A salsa20 keystream generator holding the key, nonce and block counter as the sixteen
+ * input words of the core, so they are parsed once per message rather than once per 64 byte
+ * block. Whole blocks are XORed 8 bytes at a time straight from the core's output; the unused
+ * tail of a block is buffered so the stream carries on seamlessly across calls.
+ *
+ * On Java 17 and later, run with --add-modules jdk.incubator.vector, long runs of whole
+ * blocks are computed several at a time in SIMD lanes. Otherwise, or with the system property
+ * jnacl.vector set to false, everything goes through the scalar core.
+ *
+ * No memory is allocated once the context exists, and it can be reused for any number of
+ * messages by calling init again. wipe clears all key material. Instances are not thread
+ * safe.
+ */
+public final class Salsa20Context
+{
+	private static final Salsa20Engine multiblock = load_engine();
+
+	private final int[] state = new int[16];
+	private final int[] scratch = multiblock == null ? null : new int[16 * multiblock.blocks()];
+	private final int[] x = new int[16];
+	private final byte[] block = new byte[64];
+	private final byte[] subkey = new byte[32];
+	private long counter;
+	private int used = 64;
+	private boolean vectorused;
+
+	public Salsa20Context()
+	{
+	}
+
+	/**
+	 * Whether multi-block SIMD keystream generation is available on this JVM.
+	 */
+	public static boolean vectorized()
+	{
+		return multiblock != null;
+	}
+
+	/**
+	 * Keystream blocks generated per step by the multi-block engine, or 1 without one. Runs
+	 * of whole blocks at least this long, starting on a block boundary, go through the engine.
+	 */
+	public static int blocks()
+	{
+		return multiblock == null ? 1 : multiblock.blocks();
+	}
+
+	/**
+	 * Whether any keystream since the context was created or last wiped came from the SIMD
+	 * engine rather than the scalar core. Short messages and ByteBuffers always use the
+	 * scalar core.
+	 */
+	public boolean usedVector()
+	{
+		return vectorused;
+	}
+
+	private static Salsa20Engine load_engine()
+	{
+		if (!Boolean.parseBoolean(System.getProperty("jnacl.vector", "true")))
+			return null;
+
+		try
+		{
+			/* null if there is no usable vector shape */
+			Class<?> engine = Class.forName("com.neilalexander.jnacl.crypto.Salsa20VectorEngine");
+			return (Salsa20Engine) engine.getDeclaredMethod("create").invoke(null);
+		}
+		catch (Throwable e)
+		{
+			/* too old a JVM, or the vector module not added */
+			return null;
+		}
+	}
+
+	/**
+	 * Salsa20 with a 32 byte key and the 8 byte nonce at n[noffset], starting at block 0.
+	 */
+	public void init(byte[] k, byte[] n, int noffset)
+	{
+		state[0] = 0x61707865;
+		state[1] = littleendian.load_32(k, 0);
+		state[2] = littleendian.load_32(k, 4);
+		state[3] = littleendian.load_32(k, 8);
+		state[4] = littleendian.load_32(k, 12);
+		state[5] = 0x3320646e;
+		state[6] = littleendian.load_32(n, noffset);
+		state[7] = littleendian.load_32(n, noffset + 4);
+		state[10] = 0x79622d32;
+		state[11] = littleendian.load_32(k, 16);
+		state[12] = littleendian.load_32(k, 20);
+		state[13] = littleendian.load_32(k, 24);
+		state[14] = littleendian.load_32(k, 28);
+		state[15] = 0x6b206574;
+
+		setCounter(0);
+	}
+
+	/**
+	 * XSalsa20 with a 32 byte key and 24 byte nonce: the subkey is derived from the first 16
+	 * bytes of the nonce and salsa20 keyed with it runs on the last 8.
+	 */
+	public void initXSalsa20(byte[] k, byte[] n)
+	{
+		hsalsa20.crypto_core(subkey, n, k, xsalsa20.sigma);
+		init(subkey, n, 16);
+
+		for (int i = 0; i < 32; ++i)
+			subkey[i] = 0;
+	}
+
+	/**
+	 * Moves to the start of the given 64 byte block, discarding any buffered keystream.
+	 */
+	public void setCounter(long counter)
+	{
+		this.counter = counter;
+		this.used = 64;
+	}
+
+	/**
+	 * The block the next fresh keystream block will come from.
+	 */
+	public long getCounter()
+	{
+		return counter;
+	}
+
+	/**
+	 * Moves to the given byte offset in the keystream, which need not be on a block
+	 * boundary, so that the next xor or stream call carries on from there. Offsets are
+	 * taken as unsigned; the keystream is 2^70 bytes long and wraps after that.
+	 */
+	public void seek(long offset)
+	{
+		setCounter(offset >>> 6);
+
+		if ((offset & 63) != 0)
+		{
+			refill();
+			used = (int)(offset & 63);
+		}
+	}
+
+	/**
+	 * The byte offset in the keystream the next xor or stream call will start at, modulo
+	 * 2^64.
+	 */
+	public long position()
+	{
+		return (counter << 6) - (64 - used);
+	}
+
+	/**
+	 * out[outoffset..] = in[inoffset..] ^ keystream for len bytes. The ranges may be the same.
+	 */
+	public void xor(byte[] out, int outoffset, byte[] in, int inoffset, int len)
+	{
+		while (len > 0 && used < 64)
+		{
+			out[outoffset++] = (byte)(in[inoffset++] ^ block[used++]);
+			--len;
+		}
+
+		if (multiblock != null)
+		{
+			int step = 64 * multiblock.blocks();
+
+			while (len >= step)
+			{
+				vectorused = true;
+				multiblock.xor(state, counter, scratch, out, outoffset, in, inoffset);
+				counter += multiblock.blocks();
+				outoffset += step;
+				inoffset += step;
+				len -= step;
+			}
+		}
+
+		while (len >= 64)
+		{
+			core();
+
+			for (int i = 0; i < 16; i += 2)
+			{
+				long word = (x[i] & 0xffffffffL) | ((long) x[i + 1] << 32);
+				littleendian.store_64(out, outoffset + 4 * i, littleendian.load_64(in, inoffset + 4 * i) ^ word);
+			}
+
+			outoffset += 64;
+			inoffset += 64;
+			len -= 64;
+		}
+
+		if (len > 0)
+		{
+			refill();
+
+			for (int i = 0; i < len; ++i)
+				out[outoffset + i] = (byte)(in[inoffset + i] ^ block[i]);
+
+			used = len;
+		}
+	}
+
+	/**
+	 * As xor for byte arrays, using absolute indexes so the buffer positions do not move.
+	 * Whole blocks are XORed a long at a time in the buffers' own byte order.
+	 */
+	public void xor(ByteBuffer out, int outoffset, ByteBuffer in, int inoffset, int len)
+	{
+		boolean inlittle = in.order() == ByteOrder.LITTLE_ENDIAN;
+		boolean sameorder = out.order() == in.order();
+
+		while (len > 0 && used < 64)
+		{
+			out.put(outoffset++, (byte)(in.get(inoffset++) ^ block[used++]));
+			--len;
+		}
+
+		while (len >= 64)
+		{
+			core();
+
+			for (int i = 0; i < 16; i += 2)
+			{
+				long word = (x[i] & 0xffffffffL) | ((long) x[i + 1] << 32);
+				long r = in.getLong(inoffset + 4 * i) ^ (inlittle ? word : Long.reverseBytes(word));
+
+				out.putLong(outoffset + 4 * i, sameorder ? r : Long.reverseBytes(r));
+			}
+
+			outoffset += 64;
+			inoffset += 64;
+			len -= 64;
+		}
+
+		if (len > 0)
+		{
+			refill();
+
+			for (int i = 0; i < len; ++i)
+				out.put(outoffset + i, (byte)(in.get(inoffset + i) ^ block[i]));
+
+			used = len;
+		}
+	}
+
+	/**
+	 * Writes len bytes of raw keystream to out.
+	 */
+	public void stream(byte[] out, int outoffset, int len)
+	{
+		while (len > 0)
+		{
+			if (used == 64)
+				refill();
+
+			int chunk = Math.min(len, 64 - used);
+
+			System.arraycopy(block, used, out, outoffset, chunk);
+
+			used += chunk;
+			outoffset += chunk;
+			len -= chunk;
+		}
+	}
+
+	public void wipe()
+	{
+		for (int i = 0; i < 16; ++i)
+		{
+			state[i] = 0;
+			x[i] = 0;
+		}
+
+		for (int i = 0; i < 64; ++i)
+			block[i] = 0;
+
+		if (scratch != null)
+		{
+			for (int i = 0; i < scratch.length; ++i)
+				scratch[i] = 0;
+		}
+
+		counter = 0;
+		used = 64;
+		vectorused = false;
+	}
+
+	private void refill()
+	{
+		core();
+
+		for (int i = 0; i < 16; ++i)
+			littleendian.store_32(block, 4 * i, x[i]);
+
+		used = 0;
+	}
+
+	/*
+	 * Runs the salsa20 core on the current counter into x and advances the counter.
+	 */
+	private void core()
+	{
+		int[] s = state;
+		int j0 = s[0], j1 = s[1], j2 = s[2], j3 = s[3], j4 = s[4], j5 = s[5], j6 = s[6], j7 = s[7];
+		int j8 = (int) counter, j9 = (int)(counter >>> 32);
+		int j10 = s[10], j11 = s[11], j12 = s[12], j13 = s[13], j14 = s[14], j15 = s[15];
+		int x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+		int x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+
+		for (int i = salsa20.ROUNDS; i > 0; i -= 2)
+		{
+			x4 ^= salsa20.rotate(x0 + x12, 7);
+			x8 ^= salsa20.rotate(x4 + x0, 9);
+			x12 ^= salsa20.rotate(x8 + x4, 13);
+			x0 ^= salsa20.rotate(x12 + x8, 18);
+			x9 ^= salsa20.rotate(x5 + x1, 7);
+			x13 ^= salsa20.rotate(x9 + x5, 9);
+			x1 ^= salsa20.rotate(x13 + x9, 13);
+			x5 ^= salsa20.rotate(x1 + x13, 18);
+			x14 ^= salsa20.rotate(x10 + x6, 7);
+			x2 ^= salsa20.rotate(x14 + x10, 9);
+			x6 ^= salsa20.rotate(x2 + x14, 13);
+			x10 ^= salsa20.rotate(x6 + x2, 18);
+			x3 ^= salsa20.rotate(x15 + x11, 7);
+			x7 ^= salsa20.rotate(x3 + x15, 9);
+			x11 ^= salsa20.rotate(x7 + x3, 13);
+			x15 ^= salsa20.rotate(x11 + x7, 18);
+			x1 ^= salsa20.rotate(x0 + x3, 7);
+			x2 ^= salsa20.rotate(x1 + x0, 9);
+			x3 ^= salsa20.rotate(x2 + x1, 13);
+			x0 ^= salsa20.rotate(x3 + x2, 18);
+			x6 ^= salsa20.rotate(x5 + x4, 7);
+			x7 ^= salsa20.rotate(x6 + x5, 9);
+			x4 ^= salsa20.rotate(x7 + x6, 13);
+			x5 ^= salsa20.rotate(x4 + x7, 18);
+			x11 ^= salsa20.rotate(x10 + x9, 7);
+			x8 ^= salsa20.rotate(x11 + x10, 9);
+			x9 ^= salsa20.rotate(x8 + x11, 13);
+			x10 ^= salsa20.rotate(x9 + x8, 18);
+			x12 ^= salsa20.rotate(x15 + x14, 7);
+			x13 ^= salsa20.rotate(x12 + x15, 9);
+			x14 ^= salsa20.rotate(x13 + x12, 13);
+			x15 ^= salsa20.rotate(x14 + x13, 18);
+		}
+
+		int[] o = x;
+		o[0] = x0 + j0;
+		o[1] = x1 + j1;
+		o[2] = x2 + j2;
+		o[3] = x3 + j3;
+		o[4] = x4 + j4;
+		o[5] = x5 + j5;
+		o[6] = x6 + j6;
+		o[7] = x7 + j7;
+		o[8] = x8 + j8;
+		o[9] = x9 + j9;
+		o[10] = x10 + j10;
+		o[11] = x11 + j11;
+		o[12] = x12 + j12;
+		o[13] = x13 + j13;
+		o[14] = x14 + j14;
+		o[15] = x15 + j15;
+
+		++counter;
+	}
+}
@@ -0,0 +1,281 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of crypto_box_beforenm results keyed by (secret key, peer public key), so
+ * that crypto_box and crypto_box_open do not repeat the scalar multiplication for peers they
+ * talk to often. Install one with curve25519xsalsa20poly1305.crypto_box_set_cache.
+ *
+ * Entries are evicted least recently used first once the cache is full, and optionally once
+ * they are older than a fixed time to live. Evicted keys and shared keys are zeroed. The
+ * cache is split into independently locked segments, and the scalar multiplication on a miss
+ * runs outside any lock, so it can be shared freely between threads.
+ */
+public final class SharedKeyCache
+{
+	private static final int SEGMENTS = 16;
+
+	private final segment[] segments;
+	private final long ttl;
+	private final int seed;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public SharedKeyCache(int maximumsize)
+	{
+		this(maximumsize, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * A ttl of zero means entries do not expire.
+	 */
+	public SharedKeyCache(int maximumsize, long ttl, TimeUnit unit)
+	{
+		if (maximumsize < 1)
+			throw new IllegalArgumentException("Cache size must be positive");
+
+		if (ttl < 0)
+			throw new IllegalArgumentException("Time to live must not be negative");
+
+		int count = Math.min(SEGMENTS, maximumsize);
+
+		this.segments = new segment[count];
+		for (int i = 0; i < count; ++i)
+			segments[i] = new segment(maximumsize / count + (i < maximumsize % count ? 1 : 0));
+
+		this.ttl = unit.toNanos(ttl);
+		this.seed = new SecureRandom().nextInt();
+	}
+
+	/**
+	 * Fills k with the shared key for pk and sk, computing and caching it on a miss.
+	 */
+	public int get(byte[] k, byte[] pk, byte[] sk)
+	{
+		entry_key key = new entry_key(pk, sk, seed);
+		segment s = segments[(key.hash & 0x7fffffff) % segments.length];
+
+		synchronized (s)
+		{
+			entry e = s.get(key);
+
+			if (e != null && ttl != 0 && System.nanoTime() - e.created > ttl)
+			{
+				s.remove(key);
+				e.wipe();
+				evictions.increment();
+				e = null;
+			}
+
+			if (e != null)
+			{
+				System.arraycopy(e.k, 0, k, 0, 32);
+				hits.increment();
+				key.wipe();
+				return 0;
+			}
+		}
+
+		misses.increment();
+
+		entry fresh = new entry(key, System.nanoTime());
+		curve25519xsalsa20poly1305.crypto_box_beforenm(fresh.k, pk, sk);
+		System.arraycopy(fresh.k, 0, k, 0, 32);
+
+		synchronized (s)
+		{
+			if (s.containsKey(key))
+			{
+				/* another thread got there first */
+				fresh.wipe();
+				return 0;
+			}
+
+			s.put(key, fresh);
+
+			Iterator<entry> eldest = s.values().iterator();
+			while (s.size() > s.capacity)
+			{
+				entry e = eldest.next();
+				eldest.remove();
+				e.wipe();
+				evictions.increment();
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Removes and zeroes every entry, for instance after rotating the local secret key.
+	 */
+	public void invalidateAll()
+	{
+		for (segment s : segments)
+		{
+			synchronized (s)
+			{
+				for (entry e : s.values())
+					e.wipe();
+
+				s.clear();
+			}
+		}
+	}
+
+	public long hits()
+	{
+		return hits.sum();
+	}
+
+	public long misses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * Entries dropped to stay within the size bound or because they expired.
+	 */
+	public long evictions()
+	{
+		return evictions.sum();
+	}
+
+	public int size()
+	{
+		int size = 0;
+
+		for (segment s : segments)
+		{
+			synchronized (s)
+			{
+				size += s.size();
+			}
+		}
+
+		return size;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SharedKeyCache[size=" + size() + ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions() + "]";
+	}
+
+	private static final class segment extends LinkedHashMap<entry_key, entry>
+	{
+		final int capacity;
+
+		segment(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+	}
+
+	private static final class entry_key
+	{
+		final byte[] key = new byte[64];
+		final int hash;
+
+		entry_key(byte[] pk, byte[] sk, int seed)
+		{
+			System.arraycopy(sk, 0, key, 0, 32);
+			System.arraycopy(pk, 0, key, 32, 32);
+
+			/* seeded FNV-1a with a final avalanche, so peers cannot aim for one bucket */
+			int h = seed ^ 0x811c9dc5;
+			for (int i = 0; i < 64; ++i)
+				h = (h ^ (key[i] & 0xff)) * 0x01000193;
+
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+			this.hash = h;
+		}
+
+		void wipe()
+		{
+			for (int i = 0; i < 64; ++i)
+				key[i] = 0;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof entry_key))
+				return false;
+
+			byte[] other = ((entry_key) o).key;
+			int diff = 0;
+
+			for (int i = 0; i < 64; ++i)
+				diff |= key[i] ^ other[i];
+
+			return diff == 0;
+		}
+	}
+
+	private static final class entry
+	{
+		final entry_key key;
+		final byte[] k = new byte[32];
+		final long created;
+
+		entry(entry_key key, long created)
+		{
+			this.key = key;
+			this.created = created;
+		}
+
+		void wipe()
+		{
+			key.wipe();
+
+			for (int i = 0; i < k.length; ++i)
+				k[i] = 0;
+		}
+	}
+}
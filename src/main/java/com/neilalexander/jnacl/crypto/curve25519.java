@@ -27,432 +27,238 @@
 
 package com.neilalexander.jnacl.crypto;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class curve25519
 {
 	final int CRYPTO_BYTES = 32;
 	final int CRYPTO_SCALARBYTES = 32;
 	
+	/* ladders run by one fork-join task before it stops splitting */
+	static final int BATCH_LEAF = 8;
+
 	static byte[] basev = { 9, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-	static int[] minusp = { 19, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 128 };
 
+	/*
+	 * Multiplies the base point using the precomputed table on the equivalent Edwards curve,
+	 * then maps the result back to the Montgomery u-coordinate u = (Z + Y) / (Z - Y). This
+	 * gives the same output as crypto_scalarmult(q, n, basev) at a fraction of the cost.
+	 */
 	public static int crypto_scalarmult_base(byte[] q, byte[] n)
 	{
-		byte[] basevp = basev;
-		return crypto_scalarmult(q, n, basevp);
-	}
-	
-	static void add(int[] outv, int outvoffset, int[] a, int aoffset, int[] b, int boffset)
-	{
-		int u = 0;
-		
-		for (int j = 0; j < 31; ++j)
-		{
-			u += a[aoffset + j] + b[boffset + j];
-			outv[outvoffset + j] = u & 255;
-			u >>>= 8;
-		}
-		
-		u += a[aoffset + 31] + b[boffset + 31];
-		outv[outvoffset + 31] = u;
-	}
+		byte[] e = new byte[32];
+		ge25519.p3 a = new ge25519.p3();
+		int[] x = new int[10];
+		int[] z = new int[10];
 
-	static void sub(int[] outv, int outvoffset, int[] a, int aoffset, int[] b, int boffset)
-	{
-		int u = 218;
-		
-		for (int j = 0; j < 31; ++j)
-		{
-			u += a[aoffset + j] + 65280 - b[boffset + j];
-			outv[outvoffset + j] = u & 255;
-			u >>>= 8;
-		}
-		
-		u += a[aoffset + 31] - b[boffset + 31];
-		outv[outvoffset + 31] = u;
-	}
+		clamp(e, n);
+		ge25519.scalarmult_base(a, e);
 
-	static void squeeze(int[] a, int aoffset)
-	{
-		int u = 0;
-		
-		for (int j = 0; j < 31; ++j)
-		{
-			u += a[aoffset + j];
-			a[aoffset + j] = u & 255;
-			u >>>= 8;
-		}
-		
-		u += a[aoffset + 31];
-		a[aoffset + 31] = u & 127;
-		u = 19 * (u >>> 7);
-		
-		for (int j = 0; j < 31; ++j)
-		{
-			u += a[aoffset + j];
-			a[aoffset + j] = u & 255;
-			u >>>= 8;
-		}
-		
-		u += a[aoffset + 31];
-		a[aoffset + 31] = u;
-	}
+		fe25519.add(x, a.Z, a.Y);
+		fe25519.sub(z, a.Z, a.Y);
+		fe25519.invert(z, z);
+		fe25519.mul(x, x, z);
+		fe25519.tobytes(q, x);
 
-	static void freeze(int[] a, int aoffset)
-	{
-		int[] aorig = new int[32];
-		
-		for (int j = 0; j < 32; ++j)
-			aorig[j] = a[aoffset + j];
-		
-		int[] minuspp = minusp;
-		
-		add(a, 0, a, 0, minuspp, 0);
-		
-		int negative = (int) (-((a[aoffset + 31] >>> 7) & 1));
-		
-		for (int j = 0; j < 32; ++j)
-			a[aoffset + j] ^= negative & (aorig[j] ^ a[aoffset + j]);
+		return 0;
 	}
 
-	static void mult(int[] outv, int outvoffset, int[] a, int aoffset, int[] b, int boffset)
+	static void clamp(byte[] e, byte[] n)
 	{
-		int j;
-		
 		for (int i = 0; i < 32; ++i)
-		{
-			int u = 0;
-			
-			for (j = 0; j <= i; ++j)
-				u += a[aoffset + j] * b[boffset + i - j];
-			
-			for (j = i + 1; j < 32; ++j)
-				u += 38 * a[aoffset + j] * b[boffset + i + 32 - j];
-			
-			outv[outvoffset + i] = u;
-		}
+			e[i] = n[i];
 		
-		squeeze(outv, outvoffset);
+		e[0] &= 248;
+		e[31] &= 127;
+		e[31] |= 64;
 	}
 
-	static void mult121665(int[] outv, int[] a)
+	/*
+	 * Montgomery ladder over the bits of the clamped scalar e, leaving the result in
+	 * projective form x2/z2. The two working points are swapped in constant time, with
+	 * one conditional swap per bit rather than copying through a select.
+	 */
+	static void ladder(int[] x2, int[] z2, byte[] e, int[] x1)
 	{
-		int j;
-		int u = 0;
-		
-		for (j = 0; j < 31; ++j)
-		{
-			u += 121665 * a[j];
-			outv[j] = u & 255;
-			u >>>= 8;
-		}
-		
-		u += 121665 * a[31];
-		outv[31] = u & 127;
-		u = 19 * (u >>> 7);
-		
-		for (j = 0; j < 31; ++j)
+		int[] x3 = new int[10];
+		int[] z3 = new int[10];
+		int[] a = new int[10];
+		int[] aa = new int[10];
+		int[] b = new int[10];
+		int[] bb = new int[10];
+		int[] c = new int[10];
+		int[] d = new int[10];
+		int[] t = new int[10];
+		int swap = 0;
+
+		fe25519.one(x2);
+		fe25519.zero(z2);
+		fe25519.copy(x3, x1);
+		fe25519.one(z3);
+
+		for (int pos = 254; pos >= 0; --pos)
 		{
-			u += outv[j];
-			outv[j] = u & 255;
-			u >>>= 8;
+			int bit = (e[pos >>> 3] >>> (pos & 7)) & 1;
+
+			swap ^= bit;
+			fe25519.cswap(x2, x3, swap);
+			fe25519.cswap(z2, z3, swap);
+			swap = bit;
+
+			fe25519.add(a, x2, z2);
+			fe25519.sq(aa, a);
+			fe25519.sub(b, x2, z2);
+			fe25519.sq(bb, b);
+			fe25519.sub(t, aa, bb);
+			fe25519.add(c, x3, z3);
+			fe25519.sub(d, x3, z3);
+			fe25519.mul(d, d, a);
+			fe25519.mul(c, c, b);
+			fe25519.add(x3, d, c);
+			fe25519.sq(x3, x3);
+			fe25519.sub(z3, d, c);
+			fe25519.sq(z3, z3);
+			fe25519.mul(z3, z3, x1);
+			fe25519.mul(x2, aa, bb);
+			fe25519.mul121665(z2, t);
+			fe25519.add(z2, z2, aa);
+			fe25519.mul(z2, z2, t);
 		}
-		
-		u += outv[j];
-		outv[j] = u;
+
+		fe25519.cswap(x2, x3, swap);
+		fe25519.cswap(z2, z3, swap);
 	}
-	
-	static void square(int[] outv, int outvoffset, int[] a, int aoffset)
+
+	public static int crypto_scalarmult(byte[] q, byte[] n, byte[] p)
 	{
-		int j;
-		
-		for (int i = 0; i < 32; ++i)
-		{
-			int u = 0;
-			
-			for (j = 0; j < i - j; ++j)
-				u += a[aoffset + j] * a[aoffset + i - j];
-			
-			for (j = i + 1; j < i + 32 - j; ++j)
-				u += 38 * a[aoffset + j] * a[aoffset + i + 32 - j];
-			
-			u *= 2;
-			
-			if ((i & 1) == 0)
-			{
-				u += a[aoffset + i / 2] * a[aoffset + i / 2];
-				u += 38 * a[aoffset + i / 2 + 16] * a[aoffset + i / 2 + 16];
-			}
-			
-			outv[outvoffset + i] = u;
-		}
+		byte[] e = new byte[32];
+		int[] x1 = new int[10];
+		int[] x2 = new int[10];
+		int[] z2 = new int[10];
+
+		clamp(e, n);
+		fe25519.frombytes(x1, p);
+		ladder(x2, z2, e, x1);
+
+		fe25519.invert(z2, z2);
+		fe25519.mul(x2, x2, z2);
+		fe25519.tobytes(q, x2);
 		
-		squeeze(outv, outvoffset);
+		return 0;
 	}
 
-	static void select(int[] p, int[] q, int[] r, int[] s, int b)
+	/*
+	 * Multiplies each of the points p[i] by the same scalar n into q[i], giving the same
+	 * results as calling crypto_scalarmult for each one. The ladders are spread over the
+	 * common fork-join pool and the final inversions are shared using Montgomery's trick,
+	 * so the whole batch costs a single field inversion.
+	 */
+	public static int crypto_scalarmult_batch(byte[][] q, byte[] n, byte[][] p)
 	{
-		int bminus1 = b - 1;
-		
-		for (int j = 0; j < 64; ++j)
-		{
-			int t = bminus1 & (r[j] ^ s[j]);
-			p[j] = s[j] ^ t;
-			q[j] = r[j] ^ t;
-		}
+		return crypto_scalarmult_batch(q, n, p, ForkJoinPool.commonPool());
 	}
 
-	static void mainloop(int[] work, byte[] e)
+	public static int crypto_scalarmult_batch(byte[][] q, byte[] n, byte[][] p, ForkJoinPool pool)
 	{
-		int[] xzm1 = new int[64];
-		int[] xzm = new int[64];
-		int[] xzmb = new int[64];
-		int[] xzm1b = new int[64];
-		int[] xznb = new int[64];
-		int[] xzn1b = new int[64];
-		int[] a0 = new int[64];
-		int[] a1 = new int[64];
-		int[] b0 = new int[64];
-		int[] b1 = new int[64];
-		int[] c1 = new int[64];
-		int[] r = new int[32];
-		int[] s = new int[32];
-		int[] t = new int[32];
-		int[] u = new int[32];
-
-		for (int j = 0; j < 32; ++j)
-			xzm1[j] = work[j];
-		
-		xzm1[32] = 1;
-		
-		for (int j = 33; j < 64; ++j)
-			xzm1[j] = 0;
+		int count = p.length;
+		byte[] e = new byte[32];
+		int[][] x = new int[count][10];
+		int[][] z = new int[count][10];
 
-		xzm[0] = 1;
-		
-		for (int j = 1; j < 64; ++j)
-			xzm[j] = 0;
+		if (q.length != count)
+			return -1;
 
-		for (int pos = 254; pos >= 0; --pos)
+		clamp(e, n);
+		pool.invoke(new ladder_task(x, z, e, p, 0, count));
+
+		batch_invert(x, z, count);
+
+		for (int i = 0; i < count; ++i)
 		{
-			int b = ((int) ((e[pos / 8] & 0xFF) >>> (pos & 7)));
-			b &= 1;
-			select(xzmb, xzm1b, xzm, xzm1, b);
-			add(a0, 	0,	xzmb, 	0, xzmb,	32);
-			sub(a0,	32,	xzmb, 	0, xzmb, 	32);
-			add(a1, 	0,	xzm1b, 	0, xzm1b,	32);
-			sub(a1,	32,	xzm1b, 	0, xzm1b, 32);
-			square(b0,	0, a0,	0);
-			square(b0, 32, a0,	32);
-			mult(b1,	0, a1,	0, a0,	32);
-			mult(b1,	32, a1,	32, a0,	0);
-			add(c1, 	0,	b1, 	0, b1,	32);
-			sub(c1,	32,	b1,		0, b1,	32);
-			square(r,	0, c1,	32);
-			sub(s,		0,	b0,		0, b0,	32);
-			mult121665(t, s);
-			add(u, 		0,	t, 		0, b0,	0);
-			mult(xznb,	0, b0,	0, b0,	32);
-			mult(xznb,	32, s,		0, u,		0);
-			square(xzn1b, 0, c1,	0);
-			mult(xzn1b, 32, r, 	0, work, 	0);
-			select(xzm, xzm1, xznb, xzn1b, b);
+			fe25519.mul(x[i], x[i], z[i]);
+			fe25519.tobytes(q[i], x[i]);
 		}
 
-		for (int j = 0; j < 64; ++j)
-			work[j] = xzm[j];
+		return 0;
 	}
 
-	static void recip(int[] outv, int outvoffset, int[] z, int zoffset)
+	/*
+	 * Replaces z[0..count) with their inverses using one inversion and 3 (count - 1)
+	 * multiplications. A zero z, which only a low order point gives, would wipe out the
+	 * whole product, so it is swapped for one with x cleared: this yields the same zero
+	 * output that invert(0) = 0 gives in crypto_scalarmult. Which points are of low order
+	 * is public, so branching on it leaks nothing about the scalar.
+	 */
+	static void batch_invert(int[][] x, int[][] z, int count)
 	{
-		int[] z2 = new int[32];
-		int[] z9 = new int[32];
-		int[] z11 = new int[32];
-		int[] z2_5_0 = new int[32];
-		int[] z2_10_0 = new int[32];
-		int[] z2_20_0 = new int[32];
-		int[] z2_50_0 = new int[32];
-		int[] z2_100_0 = new int[32];
-		int[] t0 = new int[32];
-		int[] t1 = new int[32];
-
-		/* 2 */
-		square(z2, 0, z, zoffset);
-		
-		/* 4 */
-		square(t1, 0, z2, 0);
-		
-		/* 8 */
-		square(t0, 0, t1, 0);
-		
-		/* 9 */
-		mult(z9, 0, t0, 0, z, zoffset);
-		
-		/* 11 */
-		mult(z11, 0, z9, 0, z2, 0);
-		
-		/* 22 */
-		square(t0, 0, z11, 0);
-		
-		/* 2^5 - 2^0 = 31 */
-		mult(z2_5_0, 0, t0, 0, z9, 0);
+		int[][] acc = new int[count][10];
+		int[] inv = new int[10];
+		int[] t = new int[10];
 
-		/* 2^6 - 2^1 */
-		square(t0, 0, z2_5_0, 0);
-		
-		/* 2^7 - 2^2 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^8 - 2^3 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^9 - 2^4 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^10 - 2^5 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^10 - 2^0 */
-		mult(z2_10_0, 0, t0, 0, z2_5_0, 0);
+		if (count == 0)
+			return;
 
-		/* 2^11 - 2^1 */
-		square(t0, 0, z2_10_0, 0);
-		
-		/* 2^12 - 2^2 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^20 - 2^10 */
-		for (int i = 2; i < 10; i += 2)
-		{ 
-			square(t0, 0, t1, 0);
-			square(t1, 0, t0, 0);
+		for (int i = 0; i < count; ++i)
+		{
+			if (fe25519.iszero(z[i]))
+			{
+				fe25519.zero(x[i]);
+				fe25519.one(z[i]);
+			}
 		}
-		
-		/* 2^20 - 2^0 */
-		mult(z2_20_0, 0, t1, 0, z2_10_0, 0);
 
-		/* 2^21 - 2^1 */
-		square(t0, 0, z2_20_0, 0);
-		
-		/* 2^22 - 2^2 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^40 - 2^20 */
-		for (int i = 2; i < 20; i += 2) 
-		{ 
-			square(t0, 0, t1, 0); 
-			square(t1, 0, t0, 0); 
-		}
-		
-		/* 2^40 - 2^0 */
-		mult(t0, 0, t1, 0, z2_20_0, 0);
+		fe25519.copy(acc[0], z[0]);
+		for (int i = 1; i < count; ++i)
+			fe25519.mul(acc[i], acc[i - 1], z[i]);
 
-		/* 2^41 - 2^1 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^42 - 2^2 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^50 - 2^10 */
-		for (int i = 2; i < 10; i += 2) 
-		{ 
-			square(t1, 0, t0, 0); 
-			square(t0, 0, t1, 0); 
-		}
-		
-		/* 2^50 - 2^0 */
-		mult(z2_50_0, 0, t0, 0, z2_10_0, 0);
+		fe25519.invert(inv, acc[count - 1]);
 
-		/* 2^51 - 2^1 */
-		square(t0, 0, z2_50_0, 0);
-		
-		/* 2^52 - 2^2 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^100 - 2^50 */
-		for (int i = 2; i < 50; i += 2)
-		{ 
-			square(t0, 0, t1, 0); 
-			square(t1, 0, t0, 0); 
+		for (int i = count - 1; i > 0; --i)
+		{
+			fe25519.mul(t, inv, acc[i - 1]);
+			fe25519.mul(inv, inv, z[i]);
+			fe25519.copy(z[i], t);
 		}
-		
-		/* 2^100 - 2^0 */
-		mult(z2_100_0, 0, t1, 0, z2_50_0, 0);
+		fe25519.copy(z[0], inv);
+	}
 
-		/* 2^101 - 2^1 */
-		square(t1, 0, z2_100_0, 0);
-		
-		/* 2^102 - 2^2 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^200 - 2^100 */
-		for (int i = 2; i < 100; i += 2)
+	static final class ladder_task extends RecursiveAction
+	{
+		private final int[][] x;
+		private final int[][] z;
+		private final byte[] e;
+		private final byte[][] p;
+		private final int from;
+		private final int to;
+
+		ladder_task(int[][] x, int[][] z, byte[] e, byte[][] p, int from, int to)
 		{
-			square(t1, 0, t0, 0);
-			square(t0, 0, t1, 0);
+			this.x = x;
+			this.z = z;
+			this.e = e;
+			this.p = p;
+			this.from = from;
+			this.to = to;
 		}
-		
-		/* 2^200 - 2^0 */
-		mult(t1, 0, t0, 0, z2_100_0, 0);
 
-		/* 2^201 - 2^1 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^202 - 2^2 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^250 - 2^50 */
-		for (int i = 2; i < 50; i += 2)
+		@Override
+		protected void compute()
 		{
-			square(t0, 0, t1, 0);
-			square(t1, 0, t0, 0);
-		}
-		
-		/* 2^250 - 2^0 */
-		mult(t0, 0, t1, 0, z2_50_0, 0);
+			if (to - from > BATCH_LEAF)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new ladder_task(x, z, e, p, from, middle), new ladder_task(x, z, e, p, middle, to));
+				return;
+			}
 
-		/* 2^251 - 2^1 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^252 - 2^2 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^253 - 2^3 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^254 - 2^4 */
-		square(t0, 0, t1, 0);
-		
-		/* 2^255 - 2^5 */
-		square(t1, 0, t0, 0);
-		
-		/* 2^255 - 21 */
-		mult(outv, outvoffset, t1, 0, z11, 0);
-	}
+			int[] x1 = new int[10];
 
-	public static int crypto_scalarmult(byte[] q, byte[] n, byte[] p)
-	{
-		int[] work = new int[96];
-		byte[] e = new byte[32];
-		
-		for (int i = 0; i < 32; ++i)
-			e[i] = n[i];
-		
-		e[0] &= 248;
-		e[31] &= 127;
-		e[31] |= 64;
-		
-		for (int i = 0; i < 32; ++i)
-			work[i] = p[i] & 0xFF;
-		
-		mainloop(work, e);
-		
-		recip(work, 32, work, 32);
-		mult(work, 64, work, 0, work, 32);		
-		freeze(work, 64);
-		
-		for (int i = 0; i < 32; ++i)
-			q[i] = (byte) work[64 + i];
-		
-		return 0;
+			for (int i = from; i < to; ++i)
+			{
+				fe25519.frombytes(x1, p[i]);
+				ladder(x[i], z[i], e, x1);
+			}
+		}
 	}
 }
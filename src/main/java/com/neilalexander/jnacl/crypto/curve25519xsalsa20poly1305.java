@@ -27,7 +27,10 @@
 
 package com.neilalexander.jnacl.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class curve25519xsalsa20poly1305
 {
@@ -37,51 +40,201 @@ public class curve25519xsalsa20poly1305
 	public static final int crypto_secretbox_NONCEBYTES = 24;
 	public static final int crypto_secretbox_ZEROBYTES = 32;
 	public static final int crypto_secretbox_BOXZEROBYTES = 16;
+	public static final int crypto_secretbox_MACBYTES = 16;
+
+	private static final SecureRandom rng = new SecureRandom();
+
+	private static volatile SharedKeyCache cache;
+	private static volatile KeyPairPool pool;
 	
 	public static int crypto_box_getpublickey(byte[] pk, byte[] sk)
 	{
 		return curve25519.crypto_scalarmult_base(pk, sk);
 	}
 	
+	/*
+	 * Takes the keypair from the installed KeyPairPool if there is one, and otherwise
+	 * generates it here from a SecureRandom shared by all callers.
+	 */
 	public static int crypto_box_keypair(byte[] pk, byte[] sk) {
-		SecureRandom rng = new SecureRandom();
-		rng.nextBytes(sk);
+		KeyPairPool p = pool;
+
+		if (p != null)
+			return p.take(pk, sk);
+
+		return crypto_box_keypair(pk, sk, rng);
+	}
+
+	public static int crypto_box_keypair(byte[] pk, byte[] sk, SecureRandom random) {
+		random.nextBytes(sk);
 		return curve25519.crypto_scalarmult_base(pk, sk);
 	}
+
+	/*
+	 * Installs a pool of pre-generated keypairs for crypto_box_keypair to take from, or
+	 * removes it when passed null. The pool is not closed when it is removed.
+	 */
+	public static void crypto_box_set_keypair_pool(KeyPairPool p)
+	{
+		pool = p;
+	}
+
+	public static KeyPairPool crypto_box_get_keypair_pool()
+	{
+		return pool;
+	}
 	
 	public static int crypto_box_afternm(byte[] c, byte[] m, long mlen, byte[] n, byte[] k)
 	{
 		return xsalsa20poly1305.crypto_secretbox(c, m, mlen, n, k);
 	}
 	
+	/*
+	 * Installs a cache of shared keys consulted by crypto_box, crypto_box_open and their
+	 * detached and easy forms, or removes it when passed null. crypto_box_beforenm itself
+	 * always computes the key.
+	 */
+	public static void crypto_box_set_cache(SharedKeyCache c)
+	{
+		cache = c;
+	}
+
+	public static SharedKeyCache crypto_box_get_cache()
+	{
+		return cache;
+	}
+
+	static int beforenm(byte[] k, byte[] pk, byte[] sk)
+	{
+		SharedKeyCache c = cache;
+
+		if (c == null)
+			return crypto_box_beforenm(k, pk, sk);
+
+		return c.get(k, pk, sk);
+	}
+	
 	public static int crypto_box_beforenm(byte[] k, byte[] pk, byte[] sk)
 	{
+		long started = Metrics.start();
+		Object event = events.beforenm_begin();
 		byte[] sp = new byte[32], sigmap = xsalsa20.sigma;
 		
 		curve25519.crypto_scalarmult(sp, sk, pk);
-		return hsalsa20.crypto_core(k, null, sp, sigmap);
+		int result = hsalsa20.crypto_core(k, null, sp, sigmap);
+
+		events.beforenm_end(event, started, 1, result);
+		return result;
+	}
+	
+	/*
+	 * Computes k[i] = crypto_box_beforenm(pk[i], sk) for a batch of public keys, sharing
+	 * one field inversion across the batch and running the ladders in parallel.
+	 */
+	public static int crypto_box_beforenm_batch(byte[][] k, byte[][] pk, byte[] sk)
+	{
+		return crypto_box_beforenm_batch(k, pk, sk, ForkJoinPool.commonPool());
+	}
+
+	public static int crypto_box_beforenm_batch(byte[][] k, byte[][] pk, byte[] sk, ForkJoinPool pool)
+	{
+		byte[] sigmap = xsalsa20.sigma;
+		byte[][] shared = new byte[pk.length][32];
+
+		if (k.length != pk.length)
+			return -1;
+
+		long started = Metrics.start();
+		Object event = events.beforenm_begin();
+
+		if (curve25519.crypto_scalarmult_batch(shared, sk, pk, pool) != 0)
+		{
+			events.beforenm_end(event, started, pk.length, -1);
+			return -1;
+		}
+
+		for (int i = 0; i < pk.length; ++i)
+		{
+			hsalsa20.crypto_core(k[i], null, shared[i], sigmap);
+			for (int j = 0; j < 32; ++j)
+				shared[i][j] = 0;
+		}
+
+		events.beforenm_end(event, started, pk.length, 0);
+		return 0;
 	}
 	
 	public static int crypto_box(byte[] c, byte[] m, long mlen, byte[] n, byte[] pk, byte[] sk)
 	{
 		byte[] kp = new byte[crypto_secretbox_BEFORENMBYTES];
 		
-		crypto_box_beforenm(kp, pk, sk);
-		return crypto_box_afternm(c, m, mlen, n, kp);
+		try
+		{
+			beforenm(kp, pk, sk);
+			return crypto_box_afternm(c, m, mlen, n, kp);
+		}
+		finally
+		{
+			Arrays.fill(kp, (byte) 0);
+		}
 	}
 	
 	public static int crypto_box_open(byte[] m, byte[] c, long clen, byte[] n, byte[] pk, byte[] sk)
 	{
 		byte[] kp = new byte[crypto_secretbox_BEFORENMBYTES];
 		
-		crypto_box_beforenm(kp, pk, sk);
-		return crypto_box_open_afternm(m, c, clen, n, kp);
+		try
+		{
+			beforenm(kp, pk, sk);
+			return crypto_box_open_afternm(m, c, clen, n, kp);
+		}
+		finally
+		{
+			Arrays.fill(kp, (byte) 0);
+		}
 	}
 	
 	public static int crypto_box_open_afternm(byte[] m, byte[] c, long clen, byte[] n, byte[] k)
 	{
 		return xsalsa20poly1305.crypto_secretbox_open(m, c, clen, n, k);
 	}
+
+	/*
+	 * As crypto_box_afternm and crypto_box_open_afternm, but spreading large messages over
+	 * the given pool; see xsalsa20poly1305.crypto_secretbox_parallel.
+	 */
+	public static int crypto_box_afternm_parallel(byte[] c, byte[] m, long mlen, byte[] n, byte[] k, ForkJoinPool pool)
+	{
+		return xsalsa20poly1305.crypto_secretbox_parallel(c, m, mlen, n, k, pool);
+	}
+
+	public static int crypto_box_open_afternm_parallel(byte[] m, byte[] c, long clen, byte[] n, byte[] k, ForkJoinPool pool)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open_parallel(m, c, clen, n, k, pool);
+	}
+	
+	public static int crypto_box_afternm(ByteBuffer c, int coffset, ByteBuffer m, int moffset, int mlen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox(c, coffset, m, moffset, mlen, n, k);
+	}
+	
+	public static int crypto_box_open_afternm(ByteBuffer m, int moffset, ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open(m, moffset, c, coffset, clen, n, k);
+	}
+	
+	/*
+	 * Checks a padded box without decrypting it; see xsalsa20poly1305.crypto_secretbox_verify.
+	 */
+	public static int crypto_box_verify_afternm(byte[] c, long clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_verify(c, clen, n, k);
+	}
+	
+	public static int crypto_box_verify_afternm(ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_verify(c, coffset, clen, n, k);
+	}
 	
 	public static int crypto_box_afternm(byte[] c, byte[] m, byte[] n, byte[] k)
 	{
@@ -102,4 +255,138 @@ public class curve25519xsalsa20poly1305
 	{
 		return crypto_box_open(m, c, (long) c.length, n, pk, sk);
 	}
+
+	public static int crypto_box_detached_afternm(byte[] c, int coffset, byte[] mac, int macoffset, byte[] m, int moffset, long mlen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_detached(c, coffset, mac, macoffset, m, moffset, mlen, n, k);
+	}
+	
+	public static int crypto_box_open_detached_afternm(byte[] m, int moffset, byte[] c, int coffset, byte[] mac, int macoffset, long clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open_detached(m, moffset, c, coffset, mac, macoffset, clen, n, k);
+	}
+	
+	public static int crypto_box_verify_detached_afternm(byte[] c, int coffset, byte[] mac, int macoffset, long clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_verify_detached(c, coffset, mac, macoffset, clen, n, k);
+	}
+	
+	public static int crypto_box_easy_afternm(byte[] c, int coffset, byte[] m, int moffset, long mlen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_easy(c, coffset, m, moffset, mlen, n, k);
+	}
+	
+	public static int crypto_box_open_easy_afternm(byte[] m, int moffset, byte[] c, int coffset, long clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open_easy(m, moffset, c, coffset, clen, n, k);
+	}
+	
+	public static int crypto_box_verify_easy_afternm(byte[] c, int coffset, long clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_verify_easy(c, coffset, clen, n, k);
+	}
+	
+	/*
+	 * Many messages under one precomputed key in a single call; see
+	 * xsalsa20poly1305.crypto_secretbox_easy_batch.
+	 */
+	public static int crypto_box_easy_afternm_batch(byte[] c, int[] coffset, byte[] m, int[] moffset, int[] mlen, byte[][] n, byte[] k, int count)
+	{
+		return xsalsa20poly1305.crypto_secretbox_easy_batch(c, coffset, m, moffset, mlen, n, k, count);
+	}
+	
+	public static int crypto_box_open_easy_afternm_batch(byte[][] m, int[] moffset, byte[] c, int[] coffset, int[] clen, byte[][] n, byte[] k, int[] result, int count)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open_easy_batch(m, moffset, c, coffset, clen, n, k, result, count);
+	}
+	
+	public static int crypto_box_detached(byte[] c, int coffset, byte[] mac, int macoffset, byte[] m, int moffset, long mlen, byte[] n, byte[] pk, byte[] sk)
+	{
+		byte[] kp = new byte[crypto_secretbox_BEFORENMBYTES];
+		
+		try
+		{
+			beforenm(kp, pk, sk);
+			return crypto_box_detached_afternm(c, coffset, mac, macoffset, m, moffset, mlen, n, kp);
+		}
+		finally
+		{
+			Arrays.fill(kp, (byte) 0);
+		}
+	}
+	
+	public static int crypto_box_open_detached(byte[] m, int moffset, byte[] c, int coffset, byte[] mac, int macoffset, long clen, byte[] n, byte[] pk, byte[] sk)
+	{
+		byte[] kp = new byte[crypto_secretbox_BEFORENMBYTES];
+		
+		try
+		{
+			beforenm(kp, pk, sk);
+			return crypto_box_open_detached_afternm(m, moffset, c, coffset, mac, macoffset, clen, n, kp);
+		}
+		finally
+		{
+			Arrays.fill(kp, (byte) 0);
+		}
+	}
+	
+	public static int crypto_box_easy(byte[] c, int coffset, byte[] m, int moffset, long mlen, byte[] n, byte[] pk, byte[] sk)
+	{
+		byte[] kp = new byte[crypto_secretbox_BEFORENMBYTES];
+		
+		try
+		{
+			beforenm(kp, pk, sk);
+			return crypto_box_easy_afternm(c, coffset, m, moffset, mlen, n, kp);
+		}
+		finally
+		{
+			Arrays.fill(kp, (byte) 0);
+		}
+	}
+	
+	public static int crypto_box_open_easy(byte[] m, int moffset, byte[] c, int coffset, long clen, byte[] n, byte[] pk, byte[] sk)
+	{
+		byte[] kp = new byte[crypto_secretbox_BEFORENMBYTES];
+		
+		try
+		{
+			beforenm(kp, pk, sk);
+			return crypto_box_open_easy_afternm(m, moffset, c, coffset, clen, n, kp);
+		}
+		finally
+		{
+			Arrays.fill(kp, (byte) 0);
+		}
+	}
+	
+	public static int crypto_box_detached_afternm(ByteBuffer c, int coffset, ByteBuffer mac, int macoffset, ByteBuffer m, int moffset, int mlen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_detached(c, coffset, mac, macoffset, m, moffset, mlen, n, k);
+	}
+	
+	public static int crypto_box_open_detached_afternm(ByteBuffer m, int moffset, ByteBuffer c, int coffset, ByteBuffer mac, int macoffset, int clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open_detached(m, moffset, c, coffset, mac, macoffset, clen, n, k);
+	}
+	
+	public static int crypto_box_verify_detached_afternm(ByteBuffer c, int coffset, ByteBuffer mac, int macoffset, int clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_verify_detached(c, coffset, mac, macoffset, clen, n, k);
+	}
+	
+	public static int crypto_box_easy_afternm(ByteBuffer c, int coffset, ByteBuffer m, int moffset, int mlen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_easy(c, coffset, m, moffset, mlen, n, k);
+	}
+	
+	public static int crypto_box_open_easy_afternm(ByteBuffer m, int moffset, ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_open_easy(m, moffset, c, coffset, clen, n, k);
+	}
+	
+	public static int crypto_box_verify_easy_afternm(ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		return xsalsa20poly1305.crypto_secretbox_verify_easy(c, coffset, clen, n, k);
+	}
 }
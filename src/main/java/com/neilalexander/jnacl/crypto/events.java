@@ -0,0 +1,82 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+/*
+ * Hooks around secretbox, key agreement and authentication failures, feeding Metrics and
+ * JDK Flight Recorder events. A begin call returns a handle that the matching end call is
+ * given back, or null when the event is not being recorded; start is the Metrics.start()
+ * time taken alongside it, and operation one of the Metrics operation constants.
+ *
+ * This is the Java 8 baseline, which only updates Metrics. The multi-release jar carries a
+ * Java 11 version of this class in META-INF/versions/11 that also emits the events.
+ */
+final class events
+{
+	private events()
+	{
+	}
+
+	static Object secretbox_begin()
+	{
+		return null;
+	}
+
+	/*
+	 * Ends a secretbox event for length message bytes; vector is whether the keystream came
+	 * from the SIMD engine, and result is the return value of the operation, or for batches
+	 * the number of messages that failed.
+	 */
+	static void secretbox_end(Object event, int operation, long start, long length, boolean vector, int result)
+	{
+		Metrics.record(operation, start, length);
+	}
+
+	/*
+	 * Records a box of length bytes that failed to verify. Instant, and independent of any
+	 * secretbox event around it.
+	 */
+	static void authentication_failure(int operation, long length)
+	{
+		Metrics.failure(operation);
+	}
+
+	static Object beforenm_begin()
+	{
+		return null;
+	}
+
+	/*
+	 * Ends a key agreement event for keys public keys, recorded in Metrics as 32 bytes of
+	 * shared key for each.
+	 */
+	static void beforenm_end(Object event, long start, int keys, int result)
+	{
+		Metrics.record(Metrics.BEFORENM, start, 32L * keys);
+	}
+}
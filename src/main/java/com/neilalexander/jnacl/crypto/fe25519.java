@@ -0,0 +1,457 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+/*
+ * Arithmetic in GF(2^255 - 19) with elements held as ten signed limbs in radix 2^25.5,
+ * alternately 26 and 25 bits wide, as in the ref10 implementation from SUPERCOP. Products
+ * are accumulated in 64 bits, so a multiplication costs 100 multiplies (55 for a squaring)
+ * rather than the 1024 of the 32 byte-limb representation.
+ *
+ * add and sub do not carry; their results may be fed straight into mul and sq.
+ */
+final class fe25519
+{
+	private fe25519()
+	{
+	}
+
+	static long load_3(byte[] in, int offset)
+	{
+		return (in[offset] & 0xff) | ((in[offset + 1] & 0xff) << 8) | ((in[offset + 2] & 0xff) << 16);
+	}
+
+	static long load_4(byte[] in, int offset)
+	{
+		return load_3(in, offset) | ((long) (in[offset + 3] & 0xff) << 24);
+	}
+
+	/*
+	 * Unlike RFC 7748 the top bit is not ignored: like the original NaCl ref implementation,
+	 * the 256 bit little endian value is taken modulo p.
+	 */
+	static void frombytes(int[] h, byte[] s)
+	{
+		long h0 = load_4(s, 0);
+		long h1 = load_3(s, 4) << 6;
+		long h2 = load_3(s, 7) << 5;
+		long h3 = load_3(s, 10) << 3;
+		long h4 = load_3(s, 13) << 2;
+		long h5 = load_4(s, 16);
+		long h6 = load_3(s, 20) << 7;
+		long h7 = load_3(s, 23) << 5;
+		long h8 = load_3(s, 26) << 4;
+		long h9 = load_3(s, 29) << 2;
+		long c;
+
+		c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+		c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+		c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+		c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+		c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+		c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+		c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+
+		h[0] = (int) h0;
+		h[1] = (int) h1;
+		h[2] = (int) h2;
+		h[3] = (int) h3;
+		h[4] = (int) h4;
+		h[5] = (int) h5;
+		h[6] = (int) h6;
+		h[7] = (int) h7;
+		h[8] = (int) h8;
+		h[9] = (int) h9;
+	}
+
+	/*
+	 * Writes the unique representative of h in [0, p) as 32 little endian bytes.
+	 */
+	static void tobytes(byte[] s, int[] h)
+	{
+		int h0 = h[0], h1 = h[1], h2 = h[2], h3 = h[3], h4 = h[4];
+		int h5 = h[5], h6 = h[6], h7 = h[7], h8 = h[8], h9 = h[9];
+		int q, c;
+
+		q = (19 * h9 + (1 << 24)) >> 25;
+		q = (h0 + q) >> 26;
+		q = (h1 + q) >> 25;
+		q = (h2 + q) >> 26;
+		q = (h3 + q) >> 25;
+		q = (h4 + q) >> 26;
+		q = (h5 + q) >> 25;
+		q = (h6 + q) >> 26;
+		q = (h7 + q) >> 25;
+		q = (h8 + q) >> 26;
+		q = (h9 + q) >> 25;
+
+		// h - p*q is in [0, p), compute it by adding 19q and dropping 2^255q
+		h0 += 19 * q;
+
+		c = h0 >> 26; h1 += c; h0 -= c << 26;
+		c = h1 >> 25; h2 += c; h1 -= c << 25;
+		c = h2 >> 26; h3 += c; h2 -= c << 26;
+		c = h3 >> 25; h4 += c; h3 -= c << 25;
+		c = h4 >> 26; h5 += c; h4 -= c << 26;
+		c = h5 >> 25; h6 += c; h5 -= c << 25;
+		c = h6 >> 26; h7 += c; h6 -= c << 26;
+		c = h7 >> 25; h8 += c; h7 -= c << 25;
+		c = h8 >> 26; h9 += c; h8 -= c << 26;
+		c = h9 >> 25; h9 -= c << 25;
+
+		s[0] = (byte) h0;
+		s[1] = (byte) (h0 >> 8);
+		s[2] = (byte) (h0 >> 16);
+		s[3] = (byte) ((h0 >> 24) | (h1 << 2));
+		s[4] = (byte) (h1 >> 6);
+		s[5] = (byte) (h1 >> 14);
+		s[6] = (byte) ((h1 >> 22) | (h2 << 3));
+		s[7] = (byte) (h2 >> 5);
+		s[8] = (byte) (h2 >> 13);
+		s[9] = (byte) ((h2 >> 21) | (h3 << 5));
+		s[10] = (byte) (h3 >> 3);
+		s[11] = (byte) (h3 >> 11);
+		s[12] = (byte) ((h3 >> 19) | (h4 << 6));
+		s[13] = (byte) (h4 >> 2);
+		s[14] = (byte) (h4 >> 10);
+		s[15] = (byte) (h4 >> 18);
+		s[16] = (byte) h5;
+		s[17] = (byte) (h5 >> 8);
+		s[18] = (byte) (h5 >> 16);
+		s[19] = (byte) ((h5 >> 24) | (h6 << 1));
+		s[20] = (byte) (h6 >> 7);
+		s[21] = (byte) (h6 >> 15);
+		s[22] = (byte) ((h6 >> 23) | (h7 << 3));
+		s[23] = (byte) (h7 >> 5);
+		s[24] = (byte) (h7 >> 13);
+		s[25] = (byte) ((h7 >> 21) | (h8 << 4));
+		s[26] = (byte) (h8 >> 4);
+		s[27] = (byte) (h8 >> 12);
+		s[28] = (byte) ((h8 >> 20) | (h9 << 6));
+		s[29] = (byte) (h9 >> 2);
+		s[30] = (byte) (h9 >> 10);
+		s[31] = (byte) (h9 >> 18);
+	}
+
+	static void zero(int[] h)
+	{
+		for (int i = 0; i < 10; ++i)
+			h[i] = 0;
+	}
+
+	static void one(int[] h)
+	{
+		zero(h);
+		h[0] = 1;
+	}
+
+	static void copy(int[] h, int[] f)
+	{
+		System.arraycopy(f, 0, h, 0, 10);
+	}
+
+	static void add(int[] h, int[] f, int[] g)
+	{
+		for (int i = 0; i < 10; ++i)
+			h[i] = f[i] + g[i];
+	}
+
+	static void sub(int[] h, int[] f, int[] g)
+	{
+		for (int i = 0; i < 10; ++i)
+			h[i] = f[i] - g[i];
+	}
+
+	static void neg(int[] h, int[] f)
+	{
+		for (int i = 0; i < 10; ++i)
+			h[i] = -f[i];
+	}
+
+	/*
+	 * Replaces f with g if b is 1, leaves it alone if b is 0, without branching on b.
+	 */
+	static void cmov(int[] f, int[] g, int b)
+	{
+		int mask = -b;
+
+		for (int i = 0; i < 10; ++i)
+			f[i] ^= mask & (f[i] ^ g[i]);
+	}
+
+	/*
+	 * Swaps f and g if b is 1, leaves them alone if b is 0, without branching on b.
+	 */
+	static void cswap(int[] f, int[] g, int b)
+	{
+		int mask = -b;
+
+		for (int i = 0; i < 10; ++i)
+		{
+			int x = mask & (f[i] ^ g[i]);
+			f[i] ^= x;
+			g[i] ^= x;
+		}
+	}
+
+	static void mul(int[] h, int[] f, int[] g)
+	{
+		long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4], f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+		long g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4], g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+		long g1_19 = 19 * g1, g2_19 = 19 * g2, g3_19 = 19 * g3, g4_19 = 19 * g4, g5_19 = 19 * g5;
+		long g6_19 = 19 * g6, g7_19 = 19 * g7, g8_19 = 19 * g8, g9_19 = 19 * g9;
+		long f1_2 = 2 * f1, f3_2 = 2 * f3, f5_2 = 2 * f5, f7_2 = 2 * f7, f9_2 = 2 * f9;
+
+		long h0 = f0 * g0 + f1_2 * g9_19 + f2 * g8_19 + f3_2 * g7_19 + f4 * g6_19 + f5_2 * g5_19 + f6 * g4_19 + f7_2 * g3_19 + f8 * g2_19 + f9_2 * g1_19;
+		long h1 = f0 * g1 + f1 * g0 + f2 * g9_19 + f3 * g8_19 + f4 * g7_19 + f5 * g6_19 + f6 * g5_19 + f7 * g4_19 + f8 * g3_19 + f9 * g2_19;
+		long h2 = f0 * g2 + f1_2 * g1 + f2 * g0 + f3_2 * g9_19 + f4 * g8_19 + f5_2 * g7_19 + f6 * g6_19 + f7_2 * g5_19 + f8 * g4_19 + f9_2 * g3_19;
+		long h3 = f0 * g3 + f1 * g2 + f2 * g1 + f3 * g0 + f4 * g9_19 + f5 * g8_19 + f6 * g7_19 + f7 * g6_19 + f8 * g5_19 + f9 * g4_19;
+		long h4 = f0 * g4 + f1_2 * g3 + f2 * g2 + f3_2 * g1 + f4 * g0 + f5_2 * g9_19 + f6 * g8_19 + f7_2 * g7_19 + f8 * g6_19 + f9_2 * g5_19;
+		long h5 = f0 * g5 + f1 * g4 + f2 * g3 + f3 * g2 + f4 * g1 + f5 * g0 + f6 * g9_19 + f7 * g8_19 + f8 * g7_19 + f9 * g6_19;
+		long h6 = f0 * g6 + f1_2 * g5 + f2 * g4 + f3_2 * g3 + f4 * g2 + f5_2 * g1 + f6 * g0 + f7_2 * g9_19 + f8 * g8_19 + f9_2 * g7_19;
+		long h7 = f0 * g7 + f1 * g6 + f2 * g5 + f3 * g4 + f4 * g3 + f5 * g2 + f6 * g1 + f7 * g0 + f8 * g9_19 + f9 * g8_19;
+		long h8 = f0 * g8 + f1_2 * g7 + f2 * g6 + f3_2 * g5 + f4 * g4 + f5_2 * g3 + f6 * g2 + f7_2 * g1 + f8 * g0 + f9_2 * g9_19;
+		long h9 = f0 * g9 + f1 * g8 + f2 * g7 + f3 * g6 + f4 * g5 + f5 * g4 + f6 * g3 + f7 * g2 + f8 * g1 + f9 * g0;
+
+		long c;
+
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+		c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+		c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+		c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+		c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+		c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+		c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+
+		h[0] = (int) h0;
+		h[1] = (int) h1;
+		h[2] = (int) h2;
+		h[3] = (int) h3;
+		h[4] = (int) h4;
+		h[5] = (int) h5;
+		h[6] = (int) h6;
+		h[7] = (int) h7;
+		h[8] = (int) h8;
+		h[9] = (int) h9;
+	}
+
+	static void sq(int[] h, int[] f)
+	{
+		long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4], f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+		long f0_2 = 2 * f0, f1_2 = 2 * f1, f1_4 = 4 * f1, f2_2 = 2 * f2, f3_2 = 2 * f3;
+		long f3_4 = 4 * f3, f4_2 = 2 * f4, f5_2 = 2 * f5, f5_4 = 4 * f5, f5_19 = 19 * f5;
+		long f6_2 = 2 * f6, f6_19 = 19 * f6, f7_2 = 2 * f7, f7_4 = 4 * f7, f7_19 = 19 * f7;
+		long f8_2 = 2 * f8, f8_19 = 19 * f8, f9_2 = 2 * f9, f9_19 = 19 * f9;
+
+		long h0 = f0 * f0 + f1_4 * f9_19 + f2_2 * f8_19 + f3_4 * f7_19 + f4_2 * f6_19 + f5_2 * f5_19;
+		long h1 = f0_2 * f1 + f2_2 * f9_19 + f3_2 * f8_19 + f4_2 * f7_19 + f5_2 * f6_19;
+		long h2 = f0_2 * f2 + f1_2 * f1 + f3_4 * f9_19 + f4_2 * f8_19 + f5_4 * f7_19 + f6 * f6_19;
+		long h3 = f0_2 * f3 + f1_2 * f2 + f4_2 * f9_19 + f5_2 * f8_19 + f6_2 * f7_19;
+		long h4 = f0_2 * f4 + f1_4 * f3 + f2 * f2 + f5_4 * f9_19 + f6_2 * f8_19 + f7_2 * f7_19;
+		long h5 = f0_2 * f5 + f1_2 * f4 + f2_2 * f3 + f6_2 * f9_19 + f7_2 * f8_19;
+		long h6 = f0_2 * f6 + f1_4 * f5 + f2_2 * f4 + f3_2 * f3 + f7_4 * f9_19 + f8 * f8_19;
+		long h7 = f0_2 * f7 + f1_2 * f6 + f2_2 * f5 + f3_2 * f4 + f8_2 * f9_19;
+		long h8 = f0_2 * f8 + f1_4 * f7 + f2_2 * f6 + f3_4 * f5 + f4 * f4 + f9_2 * f9_19;
+		long h9 = f0_2 * f9 + f1_2 * f8 + f2_2 * f7 + f3_2 * f6 + f4_2 * f5;
+
+		long c;
+
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+		c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+		c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+		c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+		c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+		c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+		c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+
+		h[0] = (int) h0;
+		h[1] = (int) h1;
+		h[2] = (int) h2;
+		h[3] = (int) h3;
+		h[4] = (int) h4;
+		h[5] = (int) h5;
+		h[6] = (int) h6;
+		h[7] = (int) h7;
+		h[8] = (int) h8;
+		h[9] = (int) h9;
+	}
+
+	/*
+	 * h = f^(2^n), n >= 1
+	 */
+	static void sqn(int[] h, int[] f, int n)
+	{
+		sq(h, f);
+
+		for (int i = 1; i < n; ++i)
+			sq(h, h);
+	}
+
+	static void mul121665(int[] h, int[] f)
+	{
+		long h0 = f[0] * 121665L;
+		long h1 = f[1] * 121665L;
+		long h2 = f[2] * 121665L;
+		long h3 = f[3] * 121665L;
+		long h4 = f[4] * 121665L;
+		long h5 = f[5] * 121665L;
+		long h6 = f[6] * 121665L;
+		long h7 = f[7] * 121665L;
+		long h8 = f[8] * 121665L;
+		long h9 = f[9] * 121665L;
+		long c;
+
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h1 + (1L << 24)) >> 25; h2 += c; h1 -= c << 25;
+		c = (h5 + (1L << 24)) >> 25; h6 += c; h5 -= c << 25;
+		c = (h2 + (1L << 25)) >> 26; h3 += c; h2 -= c << 26;
+		c = (h6 + (1L << 25)) >> 26; h7 += c; h6 -= c << 26;
+		c = (h3 + (1L << 24)) >> 25; h4 += c; h3 -= c << 25;
+		c = (h7 + (1L << 24)) >> 25; h8 += c; h7 -= c << 25;
+		c = (h4 + (1L << 25)) >> 26; h5 += c; h4 -= c << 26;
+		c = (h8 + (1L << 25)) >> 26; h9 += c; h8 -= c << 26;
+		c = (h9 + (1L << 24)) >> 25; h0 += c * 19; h9 -= c << 25;
+		c = (h0 + (1L << 25)) >> 26; h1 += c; h0 -= c << 26;
+
+		h[0] = (int) h0;
+		h[1] = (int) h1;
+		h[2] = (int) h2;
+		h[3] = (int) h3;
+		h[4] = (int) h4;
+		h[5] = (int) h5;
+		h[6] = (int) h6;
+		h[7] = (int) h7;
+		h[8] = (int) h8;
+		h[9] = (int) h9;
+	}
+
+	/*
+	 * Fully reduces h, so that it is canonical and its limbs are tightly bounded.
+	 */
+	static void reduce(int[] h)
+	{
+		byte[] s = new byte[32];
+
+		tobytes(s, h);
+		frombytes(h, s);
+	}
+
+	static boolean iszero(int[] f)
+	{
+		byte[] s = new byte[32];
+		int r = 0;
+
+		tobytes(s, f);
+
+		for (int i = 0; i < 32; ++i)
+			r |= s[i];
+
+		return r == 0;
+	}
+
+	/*
+	 * h = z^(p - 2) = 1/z, using the same addition chain as the ref implementation.
+	 */
+	static void invert(int[] h, int[] z)
+	{
+		int[] t0 = new int[10];
+		int[] t1 = new int[10];
+		int[] t2 = new int[10];
+		int[] t3 = new int[10];
+
+		/* 2 */ sq(t0, z);
+		/* 8 */ sqn(t1, t0, 2);
+		/* 9 */ mul(t1, z, t1);
+		/* 11 */ mul(t0, t0, t1);
+		/* 22 */ sq(t2, t0);
+		/* 2^5 - 2^0 */ mul(t1, t1, t2);
+		/* 2^10 - 2^5 */ sqn(t2, t1, 5);
+		/* 2^10 - 2^0 */ mul(t1, t2, t1);
+		/* 2^20 - 2^10 */ sqn(t2, t1, 10);
+		/* 2^20 - 2^0 */ mul(t2, t2, t1);
+		/* 2^40 - 2^20 */ sqn(t3, t2, 20);
+		/* 2^40 - 2^0 */ mul(t2, t3, t2);
+		/* 2^50 - 2^10 */ sqn(t2, t2, 10);
+		/* 2^50 - 2^0 */ mul(t1, t2, t1);
+		/* 2^100 - 2^50 */ sqn(t2, t1, 50);
+		/* 2^100 - 2^0 */ mul(t2, t2, t1);
+		/* 2^200 - 2^100 */ sqn(t3, t2, 100);
+		/* 2^200 - 2^0 */ mul(t2, t3, t2);
+		/* 2^250 - 2^50 */ sqn(t2, t2, 50);
+		/* 2^250 - 2^0 */ mul(t1, t2, t1);
+		/* 2^255 - 2^5 */ sqn(t1, t1, 5);
+		/* 2^255 - 21 */ mul(h, t1, t0);
+	}
+
+	/*
+	 * h = z^((p - 5) / 8) = z^(2^252 - 3), used for square roots.
+	 */
+	static void pow22523(int[] h, int[] z)
+	{
+		int[] t0 = new int[10];
+		int[] t1 = new int[10];
+		int[] t2 = new int[10];
+
+		/* 2 */ sq(t0, z);
+		/* 8 */ sqn(t1, t0, 2);
+		/* 9 */ mul(t1, z, t1);
+		/* 11 */ mul(t0, t0, t1);
+		/* 22 */ sq(t0, t0);
+		/* 2^5 - 2^0 */ mul(t0, t1, t0);
+		/* 2^10 - 2^5 */ sqn(t1, t0, 5);
+		/* 2^10 - 2^0 */ mul(t0, t1, t0);
+		/* 2^20 - 2^10 */ sqn(t1, t0, 10);
+		/* 2^20 - 2^0 */ mul(t1, t1, t0);
+		/* 2^40 - 2^20 */ sqn(t2, t1, 20);
+		/* 2^40 - 2^0 */ mul(t1, t2, t1);
+		/* 2^50 - 2^10 */ sqn(t1, t1, 10);
+		/* 2^50 - 2^0 */ mul(t0, t1, t0);
+		/* 2^100 - 2^50 */ sqn(t1, t0, 50);
+		/* 2^100 - 2^0 */ mul(t1, t1, t0);
+		/* 2^200 - 2^100 */ sqn(t2, t1, 100);
+		/* 2^200 - 2^0 */ mul(t1, t2, t1);
+		/* 2^250 - 2^50 */ sqn(t1, t1, 50);
+		/* 2^250 - 2^0 */ mul(t0, t1, t0);
+		/* 2^252 - 2^2 */ sqn(t0, t0, 2);
+		/* 2^252 - 3 */ mul(h, t0, z);
+	}
+}
@@ -0,0 +1,349 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+/*
+ * Fixed-base scalar multiplication on the twisted Edwards curve -x^2 + y^2 = 1 + d x^2 y^2,
+ * which is birationally equivalent to curve25519, following the ref10 implementation from
+ * SUPERCOP. The table holds i * 256^j * B for i = 1..8 and j = 0..31 in affine form, so
+ * that a scalar written in signed radix 16 needs only 64 table additions and 4 doublings,
+ * against 255 ladder steps for a variable base.
+ *
+ * Table lookups scan every entry of a row and select with masks, so neither the access
+ * pattern nor the timing depends on the scalar.
+ */
+final class ge25519
+{
+	/* extended coordinates: x = X/Z, y = Y/Z, x * y = T/Z */
+	static final class p3
+	{
+		final int[] X = new int[10];
+		final int[] Y = new int[10];
+		final int[] Z = new int[10];
+		final int[] T = new int[10];
+	}
+
+	/* completed coordinates: x = X/Z, y = Y/T */
+	static final class p1p1
+	{
+		final int[] X = new int[10];
+		final int[] Y = new int[10];
+		final int[] Z = new int[10];
+		final int[] T = new int[10];
+	}
+
+	/* affine point as (y + x, y - x, 2 * d * x * y) */
+	static final class precomp
+	{
+		final int[] yplusx = new int[10];
+		final int[] yminusx = new int[10];
+		final int[] xy2d = new int[10];
+	}
+
+	static final int[] d = new int[10];
+	static final int[] d2 = new int[10];
+	static final int[] sqrtm1 = new int[10];
+
+	static final precomp[][] base = new precomp[32][8];
+
+	static
+	{
+		int[] t = new int[10];
+
+		/* d = -121665 / 121666 */
+		t[0] = 121666;
+		fe25519.invert(t, t);
+		fe25519.mul121665(d, t);
+		fe25519.neg(d, d);
+		fe25519.reduce(d);
+		fe25519.add(d2, d, d);
+		fe25519.reduce(d2);
+
+		/* sqrt(-1) = 2^((p - 1) / 4), 2 being a non-square */
+		fe25519.zero(t);
+		t[0] = 2;
+		fe25519.pow22523(sqrtm1, t);
+		fe25519.sq(sqrtm1, sqrtm1);
+		fe25519.add(sqrtm1, sqrtm1, sqrtm1);
+		fe25519.reduce(sqrtm1);
+
+		build_base();
+	}
+
+	private ge25519()
+	{
+	}
+
+	static void p3_0(p3 h)
+	{
+		fe25519.zero(h.X);
+		fe25519.one(h.Y);
+		fe25519.one(h.Z);
+		fe25519.zero(h.T);
+	}
+
+	static void precomp_0(precomp h)
+	{
+		fe25519.one(h.yplusx);
+		fe25519.one(h.yminusx);
+		fe25519.zero(h.xy2d);
+	}
+
+	static void p1p1_to_p3(p3 r, p1p1 p)
+	{
+		fe25519.mul(r.X, p.X, p.T);
+		fe25519.mul(r.Y, p.Y, p.Z);
+		fe25519.mul(r.Z, p.Z, p.T);
+		fe25519.mul(r.T, p.X, p.Y);
+	}
+
+	/*
+	 * r = 2 * p, ignoring T on input
+	 */
+	static void p3_dbl(p1p1 r, p3 p)
+	{
+		int[] t0 = new int[10];
+
+		fe25519.sq(r.X, p.X);
+		fe25519.sq(r.Z, p.Y);
+		fe25519.sq(r.T, p.Z);
+		fe25519.add(r.T, r.T, r.T);
+		fe25519.add(r.Y, p.X, p.Y);
+		fe25519.sq(t0, r.Y);
+		fe25519.add(r.Y, r.Z, r.X);
+		fe25519.sub(r.Z, r.Z, r.X);
+		fe25519.sub(r.X, t0, r.Y);
+		fe25519.sub(r.T, r.T, r.Z);
+	}
+
+	/*
+	 * r = p + q
+	 */
+	static void madd(p1p1 r, p3 p, precomp q)
+	{
+		int[] t0 = new int[10];
+
+		fe25519.add(r.X, p.Y, p.X);
+		fe25519.sub(r.Y, p.Y, p.X);
+		fe25519.mul(r.Z, r.X, q.yplusx);
+		fe25519.mul(r.Y, r.Y, q.yminusx);
+		fe25519.mul(r.T, q.xy2d, p.T);
+		fe25519.add(t0, p.Z, p.Z);
+		fe25519.sub(r.X, r.Z, r.Y);
+		fe25519.add(r.Y, r.Z, r.Y);
+		fe25519.add(r.Z, t0, r.T);
+		fe25519.sub(r.T, t0, r.T);
+	}
+
+	static void p3_to_precomp(precomp r, p3 p)
+	{
+		int[] recip = new int[10];
+		int[] x = new int[10];
+		int[] y = new int[10];
+
+		fe25519.invert(recip, p.Z);
+		fe25519.mul(x, p.X, recip);
+		fe25519.mul(y, p.Y, recip);
+		fe25519.add(r.yplusx, y, x);
+		fe25519.sub(r.yminusx, y, x);
+		fe25519.mul(r.xy2d, x, y);
+		fe25519.mul(r.xy2d, r.xy2d, d2);
+		fe25519.reduce(r.yplusx);
+		fe25519.reduce(r.yminusx);
+		fe25519.reduce(r.xy2d);
+	}
+
+	/*
+	 * The base point has y = 4/5 and non-negative x. Only the sign of x would depend on the
+	 * choice of root, and u = (1 + y) / (1 - y) does not, but the conventional root is used.
+	 */
+	static void base_point(p3 h)
+	{
+		int[] u = new int[10];
+		int[] v = new int[10];
+		int[] v3 = new int[10];
+		int[] vxx = new int[10];
+		int[] check = new int[10];
+		byte[] s = new byte[32];
+
+		fe25519.zero(u);
+		u[0] = 5;
+		fe25519.invert(u, u);
+		fe25519.add(h.Y, u, u);
+		fe25519.add(h.Y, h.Y, h.Y);
+		fe25519.reduce(h.Y);
+		fe25519.one(h.Z);
+
+		/* x^2 = (y^2 - 1) / (d y^2 + 1) */
+		fe25519.sq(u, h.Y);
+		fe25519.mul(v, u, d);
+		fe25519.sub(u, u, h.Z);
+		fe25519.add(v, v, h.Z);
+
+		/* x = u v^3 (u v^7)^((p - 5) / 8) */
+		fe25519.sq(v3, v);
+		fe25519.mul(v3, v3, v);
+		fe25519.sq(h.X, v3);
+		fe25519.mul(h.X, h.X, v);
+		fe25519.mul(h.X, h.X, u);
+		fe25519.pow22523(h.X, h.X);
+		fe25519.mul(h.X, h.X, v3);
+		fe25519.mul(h.X, h.X, u);
+
+		fe25519.sq(vxx, h.X);
+		fe25519.mul(vxx, vxx, v);
+		fe25519.sub(check, vxx, u);
+		if (!fe25519.iszero(check))
+			fe25519.mul(h.X, h.X, sqrtm1);
+
+		fe25519.tobytes(s, h.X);
+		if ((s[0] & 1) != 0)
+			fe25519.neg(h.X, h.X);
+
+		fe25519.reduce(h.X);
+		fe25519.mul(h.T, h.X, h.Y);
+	}
+
+	static void build_base()
+	{
+		p3 row = new p3();
+		p3 acc = new p3();
+		p1p1 r = new p1p1();
+
+		base_point(row);
+
+		for (int i = 0; i < 32; ++i)
+		{
+			base[i][0] = new precomp();
+			p3_to_precomp(base[i][0], row);
+			fe25519.copy(acc.X, row.X);
+			fe25519.copy(acc.Y, row.Y);
+			fe25519.copy(acc.Z, row.Z);
+			fe25519.copy(acc.T, row.T);
+
+			for (int j = 1; j < 8; ++j)
+			{
+				madd(r, acc, base[i][0]);
+				p1p1_to_p3(acc, r);
+				base[i][j] = new precomp();
+				p3_to_precomp(base[i][j], acc);
+			}
+
+			/* row = 256 * row */
+			for (int j = 0; j < 8; ++j)
+			{
+				p3_dbl(r, row);
+				p1p1_to_p3(row, r);
+			}
+		}
+	}
+
+	static int equal(int b, int c)
+	{
+		return ((b ^ c) - 1) >>> 31;
+	}
+
+	static int negative(int b)
+	{
+		return b >>> 31;
+	}
+
+	static void cmov(precomp t, precomp u, int b)
+	{
+		fe25519.cmov(t.yplusx, u.yplusx, b);
+		fe25519.cmov(t.yminusx, u.yminusx, b);
+		fe25519.cmov(t.xy2d, u.xy2d, b);
+	}
+
+	/*
+	 * t = b * 256^pos * B for -8 <= b <= 8
+	 */
+	static void select(precomp t, int pos, int b)
+	{
+		precomp minust = new precomp();
+		int bnegative = negative(b);
+		int babs = b - ((-bnegative & b) << 1);
+
+		precomp_0(t);
+		for (int i = 0; i < 8; ++i)
+			cmov(t, base[pos][i], equal(babs, i + 1));
+
+		fe25519.copy(minust.yplusx, t.yminusx);
+		fe25519.copy(minust.yminusx, t.yplusx);
+		fe25519.neg(minust.xy2d, t.xy2d);
+		cmov(t, minust, bnegative);
+	}
+
+	/*
+	 * h = a * B, where a[31] <= 127
+	 */
+	static void scalarmult_base(p3 h, byte[] a)
+	{
+		byte[] e = new byte[64];
+		int carry = 0;
+		p1p1 r = new p1p1();
+		precomp t = new precomp();
+
+		for (int i = 0; i < 32; ++i)
+		{
+			e[2 * i] = (byte) (a[i] & 15);
+			e[2 * i + 1] = (byte) ((a[i] >>> 4) & 15);
+		}
+
+		/* each e[i] is now between 0 and 15, e[63] between 0 and 7 */
+		for (int i = 0; i < 63; ++i)
+		{
+			e[i] += carry;
+			carry = (e[i] + 8) >> 4;
+			e[i] -= carry << 4;
+		}
+		e[63] += carry;
+		/* each e[i] is now between -8 and 8 */
+
+		p3_0(h);
+		for (int i = 1; i < 64; i += 2)
+		{
+			select(t, i / 2, e[i]);
+			madd(r, h, t);
+			p1p1_to_p3(h, r);
+		}
+
+		for (int i = 0; i < 4; ++i)
+		{
+			p3_dbl(r, h);
+			p1p1_to_p3(h, r);
+		}
+
+		for (int i = 0; i < 64; i += 2)
+		{
+			select(t, i / 2, e[i]);
+			madd(r, h, t);
+			p1p1_to_p3(h, r);
+		}
+	}
+}
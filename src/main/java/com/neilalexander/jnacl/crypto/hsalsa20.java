@@ -36,53 +36,37 @@ public class hsalsa20
 		return (u << c) | (u >>> (32 - c));
 	}
 
-	static int load_littleendian(byte[] x, int offset)
-	{
-		return ((int)(x[offset])&0xff) |
-				((((int)(x[offset + 1])&0xff)) << 8) |
-				((((int)(x[offset + 2])&0xff)) << 16) |
-				((((int)(x[offset + 3])&0xff)) << 24);
-	}
-
-	static void store_littleendian(byte[] x, int offset, int u)
-	{
-		x[offset] = (byte) u; u >>>= 8;
-				x[offset + 1] = (byte) u; u >>>= 8;
-				x[offset + 2] = (byte) u; u >>>= 8;
-				x[offset + 3] = (byte) u;
-	}
-
 	public static int crypto_core(byte[] outv, byte[] inv, byte[] k, byte[] c)
 	{
 		int x0, x1, x2, x3, x4, x5, x6, x7, x8, x9, x10, x11, x12, x13, x14, x15;
 		int j0, j1, j2, j3, j4, j5, j6, j7, j8, j9, j10, j11, j12, j13, j14, j15;
 		int i;
 
-		j0 = x0 = load_littleendian(c, 0);
-		j1 = x1 = load_littleendian(k, 0);
-		j2 = x2 = load_littleendian(k, 4);
-		j3 = x3 = load_littleendian(k, 8);
-		j4 = x4 = load_littleendian(k, 12);
-		j5 = x5 = load_littleendian(c, 4);
+		j0 = x0 = littleendian.load_32(c, 0);
+		j1 = x1 = littleendian.load_32(k, 0);
+		j2 = x2 = littleendian.load_32(k, 4);
+		j3 = x3 = littleendian.load_32(k, 8);
+		j4 = x4 = littleendian.load_32(k, 12);
+		j5 = x5 = littleendian.load_32(c, 4);
 
 		if (inv != null)
 		{
-			j6 = x6 = load_littleendian(inv, 0);
-			j7 = x7 = load_littleendian(inv, 4);
-			j8 = x8 = load_littleendian(inv, 8);
-			j9 = x9 = load_littleendian(inv, 12);
+			j6 = x6 = littleendian.load_32(inv, 0);
+			j7 = x7 = littleendian.load_32(inv, 4);
+			j8 = x8 = littleendian.load_32(inv, 8);
+			j9 = x9 = littleendian.load_32(inv, 12);
 		}
 		else
 		{
 			j6 = x6 = j7 = x7 = j8 = x8 = j9 = x9 = 0;
 		}
 
-		j10 = x10 = load_littleendian(c, 8);
-		j11 = x11 = load_littleendian(k, 16);
-		j12 = x12 = load_littleendian(k, 20);
-		j13 = x13 = load_littleendian(k, 24);
-		j14 = x14 = load_littleendian(k, 28);
-		j15 = x15 = load_littleendian(c, 12);
+		j10 = x10 = littleendian.load_32(c, 8);
+		j11 = x11 = littleendian.load_32(k, 16);
+		j12 = x12 = littleendian.load_32(k, 20);
+		j13 = x13 = littleendian.load_32(k, 24);
+		j14 = x14 = littleendian.load_32(k, 28);
+		j15 = x15 = littleendian.load_32(c, 12);
 
 		for (i = ROUNDS; i > 0; i -= 2)
 		{
@@ -137,27 +121,27 @@ public class hsalsa20
 		x14 += j14;
 		x15 += j15;
 
-		x0 -= load_littleendian(c, 0);
-		x5 -= load_littleendian(c, 4);
-		x10 -= load_littleendian(c, 8);
-		x15 -= load_littleendian(c, 12);
+		x0 -= littleendian.load_32(c, 0);
+		x5 -= littleendian.load_32(c, 4);
+		x10 -= littleendian.load_32(c, 8);
+		x15 -= littleendian.load_32(c, 12);
 
 		if (inv != null)
 		{
-			x6 -= load_littleendian(inv, 0);
-			x7 -= load_littleendian(inv, 4);
-			x8 -= load_littleendian(inv, 8);
-			x9 -= load_littleendian(inv, 12);
+			x6 -= littleendian.load_32(inv, 0);
+			x7 -= littleendian.load_32(inv, 4);
+			x8 -= littleendian.load_32(inv, 8);
+			x9 -= littleendian.load_32(inv, 12);
 		}
 
-		store_littleendian(outv, 0, x0);
-		store_littleendian(outv, 4, x5);
-		store_littleendian(outv, 8, x10);
-		store_littleendian(outv, 12, x15);
-		store_littleendian(outv, 16, x6);
-		store_littleendian(outv, 20, x7);
-		store_littleendian(outv, 24, x8);
-		store_littleendian(outv, 28, x9);
+		littleendian.store_32(outv, 0, x0);
+		littleendian.store_32(outv, 4, x5);
+		littleendian.store_32(outv, 8, x10);
+		littleendian.store_32(outv, 12, x15);
+		littleendian.store_32(outv, 16, x6);
+		littleendian.store_32(outv, 20, x7);
+		littleendian.store_32(outv, 24, x8);
+		littleendian.store_32(outv, 28, x9);
 
 		return 0;
 	}
@@ -0,0 +1,69 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+/*
+ * Little endian word access to byte arrays, shared by salsa20, hsalsa20 and poly1305.
+ *
+ * This is the Java 8 baseline, assembling words a byte at a time. The multi-release jar
+ * carries a Java 9 version of this class in META-INF/versions/9 that uses byte array view
+ * VarHandles instead, which the JIT turns into single (unaligned) loads and stores.
+ */
+final class littleendian
+{
+	private littleendian()
+	{
+	}
+
+	static int load_32(byte[] x, int offset)
+	{
+		return (x[offset] & 0xff) |
+				((x[offset + 1] & 0xff) << 8) |
+				((x[offset + 2] & 0xff) << 16) |
+				((x[offset + 3] & 0xff) << 24);
+	}
+
+	static void store_32(byte[] x, int offset, int u)
+	{
+		x[offset] = (byte) u; u >>>= 8;
+		x[offset + 1] = (byte) u; u >>>= 8;
+		x[offset + 2] = (byte) u; u >>>= 8;
+		x[offset + 3] = (byte) u;
+	}
+
+	static long load_64(byte[] x, int offset)
+	{
+		return (load_32(x, offset) & 0xffffffffL) | ((long) load_32(x, offset + 4) << 32);
+	}
+
+	static void store_64(byte[] x, int offset, long u)
+	{
+		store_32(x, offset, (int) u);
+		store_32(x, offset + 4, (int) (u >>> 32));
+	}
+}
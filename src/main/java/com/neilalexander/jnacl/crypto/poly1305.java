@@ -27,152 +27,394 @@
 
 package com.neilalexander.jnacl.crypto;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class poly1305
 {
 	final int CRYPTO_BYTES = 16;
 	final int CRYPTO_KEYBYTES = 32;
-	
-	static final int[] minusp = {5, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 252};
+
+	/*
+	 * The accumulator and r are kept in radix 2^26, five limbs each, so that a 16 byte block
+	 * costs 25 64-bit multiplications. State layout: r0..r4 in words 0-4, h0..h4 in words 5-9
+	 * and the final key s as four little endian words in 10-13.
+	 */
+	static final int STATEWORDS = 14;
+
+	static final long MASK26 = 0x3ffffff;
 
 	public static int crypto_onetimeauth_verify(byte[] h, int hoffset, byte[] inv, int invoffset, long inlen, byte[] k)
 	{
-		byte[] correct = new byte[16];
-		
-		crypto_onetimeauth(correct, 0, inv, invoffset, inlen, k);
-		return verify_16.crypto_verify(h, hoffset, correct);
+		BufferArena.scratch s = BufferArena.scratch();
+
+		try
+		{
+			init(s.st, k);
+			blocks(s.st, inv, invoffset, inlen);
+			finish(s.st, s.correct, 0);
+
+			return verify_16.crypto_verify(h, hoffset, s.correct);
+		}
+		finally
+		{
+			s.release();
+		}
 	}
 
-	static void add(int[] h, int[] c)
+	public static int crypto_onetimeauth_verify(ByteBuffer h, int hoffset, ByteBuffer inv, int invoffset, long inlen, byte[] k)
 	{
-		int j;
-		int u = 0;
-		
-		for (j = 0; j < 17; ++j)
+		BufferArena.scratch s = BufferArena.scratch();
+
+		try
 		{
-			u += h[j] + c[j];
-			h[j] = u & 255;
-			u >>>= 8;
+			init(s.st, k);
+			blocks(s.st, inv, invoffset, inlen);
+			finish(s.st, s.correct, 0);
+
+			return verify_16.crypto_verify(h, hoffset, s.correct);
+		}
+		finally
+		{
+			s.release();
 		}
 	}
 
-	static void squeeze(int[] h)
+	static int load_littleendian(ByteBuffer x, int offset)
+	{
+		int u = x.getInt(offset);
+
+		return x.order() == ByteOrder.LITTLE_ENDIAN ? u : Integer.reverseBytes(u);
+	}
+
+	/*
+	 * Word i of a final partial block of len bytes, padded with a single 1 byte and zeros.
+	 */
+	static int load_partial(byte[] x, int offset, int len, int i)
+	{
+		int u = 0;
+
+		for (int j = 4 * i + 3; j >= 4 * i; --j)
+			u = (u << 8) | (j < len ? x[offset + j] & 0xff : (j == len ? 1 : 0));
+
+		return u;
+	}
+
+	static int load_partial(ByteBuffer x, int offset, int len, int i)
 	{
 		int u = 0;
-		
-		for (int j = 0; j < 16; ++j)
+
+		for (int j = 4 * i + 3; j >= 4 * i; --j)
+			u = (u << 8) | (j < len ? x.get(offset + j) & 0xff : (j == len ? 1 : 0));
+
+		return u;
+	}
+
+	static void init(int[] st, byte[] k)
+	{
+		int t0 = littleendian.load_32(k, 0);
+		int t1 = littleendian.load_32(k, 4);
+		int t2 = littleendian.load_32(k, 8);
+		int t3 = littleendian.load_32(k, 12);
+
+		// r &= 0x0ffffffc0ffffffc0ffffffc0fffffff, split into 26 bit limbs
+		st[0] = t0 & 0x3ffffff;
+		st[1] = ((t0 >>> 26) | (t1 << 6)) & 0x3ffff03;
+		st[2] = ((t1 >>> 20) | (t2 << 12)) & 0x3ffc0ff;
+		st[3] = ((t2 >>> 14) | (t3 << 18)) & 0x3f03fff;
+		st[4] = (t3 >>> 8) & 0x00fffff;
+
+		for (int i = 5; i < 10; ++i)
+			st[i] = 0;
+
+		st[10] = littleendian.load_32(k, 16);
+		st[11] = littleendian.load_32(k, 20);
+		st[12] = littleendian.load_32(k, 24);
+		st[13] = littleendian.load_32(k, 28);
+	}
+
+	/*
+	 * Absorbs inlen bytes into the accumulator. Every call but the last must pass a multiple
+	 * of 16 bytes, since only the final block of a message may be partial.
+	 */
+	static void blocks(int[] st, byte[] inv, int invoffset, long inlen)
+	{
+		long r0 = st[0], r1 = st[1], r2 = st[2], r3 = st[3], r4 = st[4];
+		long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+		long h0 = st[5], h1 = st[6], h2 = st[7], h3 = st[8], h4 = st[9];
+		long d0, d1, d2, d3, d4, c;
+		int t0, t1, t2, t3, hibit;
+
+		while (inlen > 0)
 		{
-			u += h[j]; 
-			h[j] = u & 255; 
-			u >>>= 8;
+			if (inlen >= 16)
+			{
+				t0 = littleendian.load_32(inv, invoffset);
+				t1 = littleendian.load_32(inv, invoffset + 4);
+				t2 = littleendian.load_32(inv, invoffset + 8);
+				t3 = littleendian.load_32(inv, invoffset + 12);
+				hibit = 1 << 24;
+			}
+			else
+			{
+				int len = (int) inlen;
+				t0 = load_partial(inv, invoffset, len, 0);
+				t1 = load_partial(inv, invoffset, len, 1);
+				t2 = load_partial(inv, invoffset, len, 2);
+				t3 = load_partial(inv, invoffset, len, 3);
+				hibit = 0;
+			}
+
+			h0 += t0 & 0x3ffffff;
+			h1 += ((t0 >>> 26) | (t1 << 6)) & 0x3ffffff;
+			h2 += ((t1 >>> 20) | (t2 << 12)) & 0x3ffffff;
+			h3 += ((t2 >>> 14) | (t3 << 18)) & 0x3ffffff;
+			h4 += (t3 >>> 8) | hibit;
+
+			d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+			d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+			d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+			d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+			d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+			c = d0 >>> 26; h0 = d0 & MASK26;
+			d1 += c; c = d1 >>> 26; h1 = d1 & MASK26;
+			d2 += c; c = d2 >>> 26; h2 = d2 & MASK26;
+			d3 += c; c = d3 >>> 26; h3 = d3 & MASK26;
+			d4 += c; c = d4 >>> 26; h4 = d4 & MASK26;
+			h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+			h1 += c;
+
+			invoffset += 16;
+			inlen -= 16;
 		}
-		
-		u += h[16];
-		h[16] = u & 3;
-		u = 5 * (u >>> 2);
-		
-		for (int j = 0; j < 16; ++j)
+
+		st[5] = (int) h0;
+		st[6] = (int) h1;
+		st[7] = (int) h2;
+		st[8] = (int) h3;
+		st[9] = (int) h4;
+	}
+
+	static void blocks(int[] st, ByteBuffer inv, int invoffset, long inlen)
+	{
+		long r0 = st[0], r1 = st[1], r2 = st[2], r3 = st[3], r4 = st[4];
+		long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+		long h0 = st[5], h1 = st[6], h2 = st[7], h3 = st[8], h4 = st[9];
+		long d0, d1, d2, d3, d4, c;
+		int t0, t1, t2, t3, hibit;
+
+		while (inlen > 0)
 		{
-			u += h[j];
-			h[j] = u & 255;
-			u >>>= 8;
+			if (inlen >= 16)
+			{
+				t0 = load_littleendian(inv, invoffset);
+				t1 = load_littleendian(inv, invoffset + 4);
+				t2 = load_littleendian(inv, invoffset + 8);
+				t3 = load_littleendian(inv, invoffset + 12);
+				hibit = 1 << 24;
+			}
+			else
+			{
+				int len = (int) inlen;
+				t0 = load_partial(inv, invoffset, len, 0);
+				t1 = load_partial(inv, invoffset, len, 1);
+				t2 = load_partial(inv, invoffset, len, 2);
+				t3 = load_partial(inv, invoffset, len, 3);
+				hibit = 0;
+			}
+
+			h0 += t0 & 0x3ffffff;
+			h1 += ((t0 >>> 26) | (t1 << 6)) & 0x3ffffff;
+			h2 += ((t1 >>> 20) | (t2 << 12)) & 0x3ffffff;
+			h3 += ((t2 >>> 14) | (t3 << 18)) & 0x3ffffff;
+			h4 += (t3 >>> 8) | hibit;
+
+			d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+			d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+			d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+			d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+			d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+			c = d0 >>> 26; h0 = d0 & MASK26;
+			d1 += c; c = d1 >>> 26; h1 = d1 & MASK26;
+			d2 += c; c = d2 >>> 26; h2 = d2 & MASK26;
+			d3 += c; c = d3 >>> 26; h3 = d3 & MASK26;
+			d4 += c; c = d4 >>> 26; h4 = d4 & MASK26;
+			h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+			h1 += c;
+
+			invoffset += 16;
+			inlen -= 16;
 		}
-		
-		u += h[16];
-		h[16] = u;
+
+		st[5] = (int) h0;
+		st[6] = (int) h1;
+		st[7] = (int) h2;
+		st[8] = (int) h3;
+		st[9] = (int) h4;
 	}
 
-	static void freeze(int[] h)
+	/*
+	 * h = a * b mod 2^130 - 5, for five limb values such as r or a partially reduced
+	 * accumulator, with the same carrying as blocks.
+	 */
+	static void mul(int[] h, int[] a, int[] b)
 	{
-		int[] horig = new int[17];
-		
-		for (int j = 0; j < 17; ++j)
-			horig[j] = h[j];
-		
-		add(h, minusp);
-		
-		int negative = (int)(-(h[16] >>> 7));
-		
-		for (int j = 0; j < 17; ++j)
-			h[j] ^= negative & (horig[j] ^ h[j]);
+		long a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4];
+		long b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3], b4 = b[4];
+		long s1 = b1 * 5, s2 = b2 * 5, s3 = b3 * 5, s4 = b4 * 5;
+		long d0, d1, d2, d3, d4, c;
+
+		d0 = a0 * b0 + a1 * s4 + a2 * s3 + a3 * s2 + a4 * s1;
+		d1 = a0 * b1 + a1 * b0 + a2 * s4 + a3 * s3 + a4 * s2;
+		d2 = a0 * b2 + a1 * b1 + a2 * b0 + a3 * s4 + a4 * s3;
+		d3 = a0 * b3 + a1 * b2 + a2 * b1 + a3 * b0 + a4 * s4;
+		d4 = a0 * b4 + a1 * b3 + a2 * b2 + a3 * b1 + a4 * b0;
+
+		c = d0 >>> 26; d0 &= MASK26;
+		d1 += c; c = d1 >>> 26; d1 &= MASK26;
+		d2 += c; c = d2 >>> 26; d2 &= MASK26;
+		d3 += c; c = d3 >>> 26; d3 &= MASK26;
+		d4 += c; c = d4 >>> 26; d4 &= MASK26;
+		d0 += c * 5; c = d0 >>> 26; d0 &= MASK26;
+		d1 += c;
+
+		h[0] = (int) d0;
+		h[1] = (int) d1;
+		h[2] = (int) d2;
+		h[3] = (int) d3;
+		h[4] = (int) d4;
 	}
 
-	static void mulmod(int[] h, int[] r)
+	/*
+	 * Folds in the accumulator h of a chain that was started from zero on the blocks
+	 * following those already absorbed into st: st's accumulator becomes
+	 * st.h * r^blocks + h, which is what absorbing those blocks directly would have given.
+	 * This lets a long message be authenticated as independent chains over consecutive
+	 * segments, for instance on several threads. blocks is public, so branching on it is
+	 * fine.
+	 */
+	static void combine(int[] st, int[] h, long blocks)
 	{
-		int[] hr = new int[17];
-		
-		for (int i = 0; i < 17; ++i)
+		int[] acc = new int[5];
+		int[] power = new int[5];
+		int[] rpow = new int[5];
+
+		System.arraycopy(st, 5, acc, 0, 5);
+		System.arraycopy(st, 0, rpow, 0, 5);
+		power[0] = 1;
+
+		for (long e = blocks; e > 0; e >>>= 1)
 		{
-			int u = 0;
-			
-			for (int j = 0; j <= i; ++j) 
-				u += h[j] * r[i - j];
-			
-			for (int j = i + 1; j < 17; ++j) 
-				u += 320 * h[j] * r[i + 17 - j];
-			
-			hr[i] = u;
+			if ((e & 1) != 0)
+				mul(power, power, rpow);
+
+			mul(rpow, rpow, rpow);
 		}
-		
-		for (int i = 0; i < 17; ++i)
-			h[i] = hr[i];
-		
-		squeeze(h);
+
+		mul(acc, acc, power);
+
+		long h0 = (long) acc[0] + h[0], h1 = (long) acc[1] + h[1], h2 = (long) acc[2] + h[2];
+		long h3 = (long) acc[3] + h[3], h4 = (long) acc[4] + h[4], c;
+
+		c = h0 >>> 26; h0 &= MASK26;
+		h1 += c; c = h1 >>> 26; h1 &= MASK26;
+		h2 += c; c = h2 >>> 26; h2 &= MASK26;
+		h3 += c; c = h3 >>> 26; h3 &= MASK26;
+		h4 += c; c = h4 >>> 26; h4 &= MASK26;
+		h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+		h1 += c;
+
+		st[5] = (int) h0;
+		st[6] = (int) h1;
+		st[7] = (int) h2;
+		st[8] = (int) h3;
+		st[9] = (int) h4;
+
+		// the temporaries hold powers of the secret r
+		for (int i = 0; i < 5; ++i)
+			acc[i] = power[i] = rpow[i] = 0;
+	}
+
+	static void finish(int[] st, byte[] outv, int outvoffset)
+	{
+		long h0 = st[5], h1 = st[6], h2 = st[7], h3 = st[8], h4 = st[9];
+		long g0, g1, g2, g3, g4, c, f, mask;
+
+		// fully carry h
+		c = h1 >>> 26; h1 &= MASK26;
+		h2 += c; c = h2 >>> 26; h2 &= MASK26;
+		h3 += c; c = h3 >>> 26; h3 &= MASK26;
+		h4 += c; c = h4 >>> 26; h4 &= MASK26;
+		h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+		h1 += c;
+
+		// compute h - p, and select it in constant time if it did not borrow
+		g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK26;
+		g1 = h1 + c; c = g1 >>> 26; g1 &= MASK26;
+		g2 = h2 + c; c = g2 >>> 26; g2 &= MASK26;
+		g3 = h3 + c; c = g3 >>> 26; g3 &= MASK26;
+		g4 = h4 + c - (1L << 26);
+
+		mask = (g4 >>> 63) - 1;
+		g0 &= mask;
+		g1 &= mask;
+		g2 &= mask;
+		g3 &= mask;
+		g4 &= mask;
+		mask = ~mask;
+		h0 = (h0 & mask) | g0;
+		h1 = (h1 & mask) | g1;
+		h2 = (h2 & mask) | g2;
+		h3 = (h3 & mask) | g3;
+		h4 = (h4 & mask) | g4;
+
+		// h = (h + s) % 2^128
+		h0 = (h0 | (h1 << 26)) & 0xffffffffL;
+		h1 = ((h1 >>> 6) | (h2 << 20)) & 0xffffffffL;
+		h2 = ((h2 >>> 12) | (h3 << 14)) & 0xffffffffL;
+		h3 = ((h3 >>> 18) | (h4 << 8)) & 0xffffffffL;
+
+		f = h0 + (st[10] & 0xffffffffL); littleendian.store_32(outv, outvoffset, (int) f);
+		f = h1 + (st[11] & 0xffffffffL) + (f >>> 32); littleendian.store_32(outv, outvoffset + 4, (int) f);
+		f = h2 + (st[12] & 0xffffffffL) + (f >>> 32); littleendian.store_32(outv, outvoffset + 8, (int) f);
+		f = h3 + (st[13] & 0xffffffffL) + (f >>> 32); littleendian.store_32(outv, outvoffset + 12, (int) f);
 	}
 
 	public static int crypto_onetimeauth(byte[] outv, int outvoffset, byte[] inv, int invoffset, long inlen, byte[] k)
 	{
-		int j;
-		int[] r = new int[17];
-		int[] h = new int[17];
-		int[] c = new int[17];
-
-		r[0] = k[0] & 0xFF;
-		r[1] = k[1] & 0xFF;
-		r[2] = k[2] & 0xFF;
-		r[3] = k[3] & 15;
-		r[4] = k[4] & 252;
-		r[5] = k[5] & 0xFF;
-		r[6] = k[6] & 0xFF;
-		r[7] = k[7] & 15;
-		r[8] = k[8] & 252;
-		r[9] = k[9] & 0xFF;
-		r[10] = k[10] & 0xFF;
-		r[11] = k[11] & 15;
-		r[12] = k[12] & 252;
-		r[13] = k[13] & 0xFF;
-		r[14] = k[14] & 0xFF;
-		r[15] = k[15] & 15;
-		r[16] = 0;
-
-		for (j = 0; j < 17; ++j)
-			h[j] = 0;
+		BufferArena.scratch s = BufferArena.scratch();
 
-		while (inlen > 0)
+		try
+		{
+			init(s.st, k);
+			blocks(s.st, inv, invoffset, inlen);
+			finish(s.st, outv, outvoffset);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		return 0;
+	}
+
+	public static int crypto_onetimeauth(byte[] outv, int outvoffset, ByteBuffer inv, int invoffset, long inlen, byte[] k)
+	{
+		BufferArena.scratch s = BufferArena.scratch();
+
+		try
+		{
+			init(s.st, k);
+			blocks(s.st, inv, invoffset, inlen);
+			finish(s.st, outv, outvoffset);
+		}
+		finally
 		{
-			for (j = 0; j < 17; ++j)
-				c[j] = 0;
-			
-			for (j = 0; (j < 16) && (j < inlen); ++j)
-				c[j] = inv[invoffset + j]&0xff;
-			
-			c[j] = 1;
-			invoffset += j;
-			inlen -= j;
-			add(h, c);
-			mulmod(h, r);
+			s.release();
 		}
 
-		freeze(h);
-
-		for (j = 0; j < 16; ++j) 
-			c[j] = k[j + 16] & 0xFF;
-		
-		c[16] = 0;
-		add(h, c);
-		
-		for (j = 0; j < 16; ++j) 
-			outv[j + outvoffset] = (byte)h[j];
-		
 		return 0;
 	}
 }
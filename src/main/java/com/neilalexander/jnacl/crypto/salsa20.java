@@ -38,49 +38,33 @@ public class salsa20
 
 	final static int ROUNDS = 20;
 
-	static long rotate(int u, int c)
+	static int rotate(int u, int c)
 	{
 		return (u << c) | (u >>> (32 - c));
 	}
 
-	static int load_littleendian(byte[] x, int offset)
-	{
-		return ((int)(x[offset])&0xff) |
-				((((int)(x[offset + 1])&0xff)) << 8) |
-				((((int)(x[offset + 2])&0xff)) << 16) |
-				((((int)(x[offset + 3])&0xff)) << 24);
-	}
-
-	static void store_littleendian(byte[] x, int offset, int u)
-	{
-		x[offset] = (byte) u; u >>>= 8;
-		x[offset + 1] = (byte) u; u >>>= 8;
-		x[offset + 2] = (byte) u; u >>>= 8;
-		x[offset + 3] = (byte) u;
-	}
-
 	public static int crypto_core(byte[] outv, byte[] inv, byte[] k, byte[] c)
 	{
 		int x0, x1, x2, x3, x4, x5, x6, x7, x8, x9, x10, x11, x12, x13, x14, x15;
 		int j0, j1, j2, j3, j4, j5, j6, j7, j8, j9, j10, j11, j12, j13, j14, j15;
 		int i;
 
-		j0 = x0 = load_littleendian(c, 0);
-		j1 = x1 = load_littleendian(k, 0);
-		j2 = x2 = load_littleendian(k, 4);
-		j3 = x3 = load_littleendian(k, 8);
-		j4 = x4 = load_littleendian(k, 12);
-		j5 = x5 = load_littleendian(c, 4);
-		j6 = x6 = load_littleendian(inv, 0);
-		j7 = x7 = load_littleendian(inv, 4);
-		j8 = x8 = load_littleendian(inv, 8);
-		j9 = x9 = load_littleendian(inv, 12);
-		j10 = x10 = load_littleendian(c, 8);
-		j11 = x11 = load_littleendian(k, 16);
-		j12 = x12 = load_littleendian(k, 20);
-		j13 = x13 = load_littleendian(k, 24);
-		j14 = x14 = load_littleendian(k, 28);
-		j15 = x15 = load_littleendian(c, 12);
+		j0 = x0 = littleendian.load_32(c, 0);
+		j1 = x1 = littleendian.load_32(k, 0);
+		j2 = x2 = littleendian.load_32(k, 4);
+		j3 = x3 = littleendian.load_32(k, 8);
+		j4 = x4 = littleendian.load_32(k, 12);
+		j5 = x5 = littleendian.load_32(c, 4);
+		j6 = x6 = littleendian.load_32(inv, 0);
+		j7 = x7 = littleendian.load_32(inv, 4);
+		j8 = x8 = littleendian.load_32(inv, 8);
+		j9 = x9 = littleendian.load_32(inv, 12);
+		j10 = x10 = littleendian.load_32(c, 8);
+		j11 = x11 = littleendian.load_32(k, 16);
+		j12 = x12 = littleendian.load_32(k, 20);
+		j13 = x13 = littleendian.load_32(k, 24);
+		j14 = x14 = littleendian.load_32(k, 28);
+		j15 = x15 = littleendian.load_32(c, 12);
 
 		for (i = ROUNDS; i > 0; i -= 2)
 		{
@@ -135,116 +119,102 @@ public class salsa20
 		x14 += j14;
 		x15 += j15;
 
-		store_littleendian(outv, 0, x0);
-		store_littleendian(outv, 4, x1);
-		store_littleendian(outv, 8, x2);
-		store_littleendian(outv, 12, x3);
-		store_littleendian(outv, 16, x4);
-		store_littleendian(outv, 20, x5);
-		store_littleendian(outv, 24, x6);
-		store_littleendian(outv, 28, x7);
-		store_littleendian(outv, 32, x8);
-		store_littleendian(outv, 36, x9);
-		store_littleendian(outv, 40, x10);
-		store_littleendian(outv, 44, x11);
-		store_littleendian(outv, 48, x12);
-		store_littleendian(outv, 52, x13);
-		store_littleendian(outv, 56, x14);
-		store_littleendian(outv, 60, x15);
+		littleendian.store_32(outv, 0, x0);
+		littleendian.store_32(outv, 4, x1);
+		littleendian.store_32(outv, 8, x2);
+		littleendian.store_32(outv, 12, x3);
+		littleendian.store_32(outv, 16, x4);
+		littleendian.store_32(outv, 20, x5);
+		littleendian.store_32(outv, 24, x6);
+		littleendian.store_32(outv, 28, x7);
+		littleendian.store_32(outv, 32, x8);
+		littleendian.store_32(outv, 36, x9);
+		littleendian.store_32(outv, 40, x10);
+		littleendian.store_32(outv, 44, x11);
+		littleendian.store_32(outv, 48, x12);
+		littleendian.store_32(outv, 52, x13);
+		littleendian.store_32(outv, 56, x14);
+		littleendian.store_32(outv, 60, x15);
 
 		return 0;
 	}
 	
 	public static int crypto_stream(byte[] c, int clen, byte[] n, int noffset, byte[] k)
 	{
-		byte[] inv = new byte[16];
-		byte[] block = new byte[64];
-		
-		int coffset = 0;
-		
-		if (clen == 0)
-			return 0;
-
-		for (int i = 0; i < 8; ++i)
-			inv[i] = n[noffset + i];
-		
-		for (int i = 8; i < 16; ++i)
-			inv[i] = 0;
-
-		while (clen >= 64)
-		{		
-			salsa20.crypto_core(c, inv, k, xsalsa20.sigma);
-
-			int u = 1;
-			
-			for (int i = 8; i < 16; ++i)
-			{
-				u += inv[i]&0xff;
-				inv[i] = (byte) u;
-				u >>>= 8;
-			}
-
-			clen -= 64;
-			coffset += 64;
-		}
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
 
-		if (clen != 0)
-		{			
-			salsa20.crypto_core(block, inv, k, xsalsa20.sigma);
-			
-			for (int i = 0; i < clen; ++i)
-				c[coffset + i] = block[i];
+		try
+		{
+			ctx.init(k, n, noffset);
+			ctx.stream(c, 0, clen);
 		}
-		
+		finally
+		{
+			s.release();
+		}
+
 		return 0;
 	}
 
 	public static int crypto_stream_xor(byte[] c, byte[] m, int mlen, byte[] n, int noffset, byte[] k)
 	{
-		byte[] inv = new byte[16];
-		byte[] block = new byte[64];
-		
-		int coffset = 0;
-		int moffset = 0;
-		
-		if (mlen == 0)
-			return 0;
-
-		for (int i = 0; i < 8; ++i)
-			inv[i] = n[noffset + i];
-		
-		for (int i = 8; i < 16; ++i)
-			inv[i] = 0;
-
-		while (mlen >= 64)
-		{			
-			salsa20.crypto_core(block, inv, k, xsalsa20.sigma);
-			
-			for (int i = 0; i < 64; ++i)
-				c[coffset + i] = (byte)(m[moffset + i] ^ block[i]);
-
-			int u = 1;
-			
-			for (int i = 8; i < 16; ++i)
-			{
-				u += inv[i]&0xff;
-				inv[i] = (byte) u;
-				u >>>= 8;
-			}
-
-			mlen -= 64;
-			coffset += 64;
-			moffset += 64;
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.init(k, n, noffset);
+			ctx.xor(c, 0, m, 0, mlen);
+		}
+		finally
+		{
+			s.release();
 		}
 
-		if (mlen != 0)
+		return 0;
+	}
+
+	/*
+	 * As crypto_stream and crypto_stream_xor, but writing at c[coffset] and starting at byte
+	 * offset in the keystream, so that any range of a long stream can be produced or
+	 * decrypted without generating what comes before it.
+	 */
+	public static int crypto_stream_at(byte[] c, int coffset, int clen, byte[] n, int noffset, byte[] k, long offset)
+	{
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.init(k, n, noffset);
+			ctx.seek(offset);
+			ctx.stream(c, coffset, clen);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		return 0;
+	}
+
+	public static int crypto_stream_xor_at(byte[] c, int coffset, byte[] m, int moffset, int mlen, byte[] n, int noffset, byte[] k, long offset)
+	{
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.init(k, n, noffset);
+			ctx.seek(offset);
+			ctx.xor(c, coffset, m, moffset, mlen);
+		}
+		finally
 		{
-			salsa20.crypto_core(block, inv, k, xsalsa20.sigma);
-			
-			for (int i = 0; i < mlen; ++i)
-				c[coffset + i] = (byte)(m[moffset + i] ^ block[i]);
+			s.release();
 		}
-		
+
 		return 0;
 	}
 }
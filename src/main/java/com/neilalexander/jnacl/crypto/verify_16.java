@@ -27,6 +27,8 @@
 
 package com.neilalexander.jnacl.crypto;
 
+import java.nio.ByteBuffer;
+
 public class verify_16
 {
 	final int crypto_verify_16_ref_BYTES = 16;
@@ -35,9 +37,19 @@ public class verify_16
 	{
 		int differentbits = 0;
 		
-		for (int i = 0; i < 15; i++)
+		for (int i = 0; i < 16; i++)
 			differentbits |= ((int)(x[xoffset + i] ^ y[i])) & 0xff;
 		
 		return (1 & (((int)differentbits - 1) >>> 8)) - 1;
 	}
+
+	public static int crypto_verify(ByteBuffer x, int xoffset, byte[] y)
+	{
+		int differentbits = 0;
+		
+		for (int i = 0; i < 16; i++)
+			differentbits |= ((int)(x.get(xoffset + i) ^ y[i])) & 0xff;
+		
+		return (1 & (((int)differentbits - 1) >>> 8)) - 1;
+	}
 }
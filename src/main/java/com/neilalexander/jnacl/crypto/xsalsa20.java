@@ -39,17 +39,79 @@ public class xsalsa20
 	
 	public static int crypto_stream(byte[] c, int clen, byte[] n, byte[] k)
 	{
-		byte[] subkey = new byte[32];
-		
-		hsalsa20.crypto_core(subkey, n, k, sigma);
-		return salsa20.crypto_stream(c, clen, n, 16, subkey);
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.initXSalsa20(k, n);
+			ctx.stream(c, 0, clen);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		return 0;
 	}
 	
 	public static int crypto_stream_xor(byte[] c, byte[] m, long mlen, byte[] n, byte[] k)
 	{
-		byte[] subkey = new byte[32];
-		
-		hsalsa20.crypto_core(subkey, n, k, sigma);
-		return salsa20.crypto_stream_xor(c, m, (int) mlen, n, 16, subkey);
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.initXSalsa20(k, n);
+			ctx.xor(c, 0, m, 0, (int) mlen);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		return 0;
+	}
+
+	/*
+	 * As crypto_stream and crypto_stream_xor, but writing at c[coffset] and starting at byte
+	 * offset in the keystream; see salsa20.crypto_stream_xor_at.
+	 */
+	public static int crypto_stream_at(byte[] c, int coffset, int clen, byte[] n, byte[] k, long offset)
+	{
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.initXSalsa20(k, n);
+			ctx.seek(offset);
+			ctx.stream(c, coffset, clen);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		return 0;
+	}
+	
+	public static int crypto_stream_xor_at(byte[] c, int coffset, byte[] m, int moffset, long mlen, byte[] n, byte[] k, long offset)
+	{
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+
+		try
+		{
+			ctx.initXSalsa20(k, n);
+			ctx.seek(offset);
+			ctx.xor(c, coffset, m, moffset, (int) mlen);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		return 0;
 	}
 }
@@ -27,6 +27,11 @@
 
 package com.neilalexander.jnacl.crypto;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class xsalsa20poly1305
 {
 	final int crypto_secretbox_KEYBYTES = 32;
@@ -39,8 +44,7 @@ public class xsalsa20poly1305
 		if (mlen < 32)
 			return -1;
 
-		xsalsa20.crypto_stream_xor(c, m, mlen, n, k);
-		poly1305.crypto_onetimeauth(c, 16, c, 32, mlen - 32, c);
+		crypto_secretbox_detached(c, 32, c, 16, m, 32, mlen - 32, n, k);
 		
 		for (int i = 0; i < 16; ++i)
 			c[i] = 0;
@@ -53,18 +57,738 @@ public class xsalsa20poly1305
 		if (clen < 32)
 			return -1;
 	
-		byte[] subkeyp = new byte[32];
-		
-		xsalsa20.crypto_stream(subkeyp, 32, n, k);
-		
-		if (poly1305.crypto_onetimeauth_verify(c, 16, c, 32, clen - 32, subkeyp) != 0)
+		if (crypto_secretbox_open_detached(m, 32, c, 32, c, 16, clen - 32, n, k) != 0)
 			return -1;
 		
-		xsalsa20.crypto_stream_xor(m, c, clen, n, k);
-		
 		for (int i = 0; i < 32; ++i)
 			m[i] = 0;
 		
 		return 0;
 	}
+
+	/*
+	 * Bytes encrypted and authenticated per step, small enough to stay in L1 and a whole
+	 * number of the vector engine's multi-block steps.
+	 */
+	static final int CHUNK = Math.max(512, 64 * Salsa20Context.blocks());
+
+	/* message bytes per task in the parallel variants, a multiple of 64 */
+	static final int SEGMENT = 1 << 20;
+
+	/* what a segment_task does with its segment */
+	static final int SEAL = 0;
+	static final int CHECK = 1;
+	static final int DECRYPT = 2;
+
+	/*
+	 * Sets ctx up for the XSalsa20 stream of n and k and initialises the poly1305 state st
+	 * from the first 32 bytes of keystream block 0; the stream then carries on with the
+	 * last 32 bytes of that block, which encrypt the start of the message. polykey is 32
+	 * bytes of scratch, wiped before returning.
+	 */
+	static void init(Salsa20Context ctx, int[] st, byte[] polykey, byte[] n, byte[] k)
+	{
+		ctx.initXSalsa20(k, n);
+		ctx.stream(polykey, 0, 32);
+		poly1305.init(st, polykey);
+
+		for (int i = 0; i < 32; ++i)
+			polykey[i] = 0;
+	}
+
+	/*
+	 * Bytes to take in the next step of a chunked loop over ctx's keystream. If the stream is
+	 * part way into a block, as it is after init, only the rest of that block is taken, so
+	 * that every later step starts on a block boundary and reaches the vector engine whole.
+	 */
+	static int step(Salsa20Context ctx)
+	{
+		int partial = (int) ctx.position() & 63;
+
+		return partial == 0 ? CHUNK : 64 - partial;
+	}
+
+	/*
+	 * The detached and easy variants work on plain message ranges, without the ZEROBYTES and
+	 * BOXZEROBYTES padding. Detached writes the 16 byte authenticator to mac and mlen bytes of
+	 * ciphertext to c; easy writes the authenticator followed by the ciphertext to c. m and c
+	 * may be the same range.
+	 *
+	 * Encryption and authentication run in a single pass: each chunk of keystream is XORed
+	 * into the message and the resulting ciphertext is fed to poly1305 straight away, while
+	 * it is still in cache. Opening checks the authenticator over the whole ciphertext first
+	 * and only then decrypts, so nothing is written to m for a box that does not verify; in
+	 * particular a forged box opened in place is left as it was.
+	 */
+	static public int crypto_secretbox_detached(byte[] c, int coffset, byte[] mac, int macoffset, byte[] m, int moffset, long mlen, byte[] n, byte[] k)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+		int[] st = s.st;
+		int len = (int) mlen;
+		boolean vector;
+
+		try
+		{
+			init(ctx, st, s.key, n, k);
+
+			while (len > 0)
+			{
+				int chunk = Math.min(len, step(ctx));
+
+				ctx.xor(c, coffset, m, moffset, chunk);
+				poly1305.blocks(st, c, coffset, chunk);
+
+				coffset += chunk;
+				moffset += chunk;
+				len -= chunk;
+			}
+
+			poly1305.finish(st, mac, macoffset);
+			vector = ctx.usedVector();
+		}
+		finally
+		{
+			s.release();
+		}
+
+		events.secretbox_end(event, Metrics.BOX, started, mlen, vector, 0);
+		return 0;
+	}
+
+	static public int crypto_secretbox_open_detached(byte[] m, int moffset, byte[] c, int coffset, byte[] mac, int macoffset, long clen, byte[] n, byte[] k)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+		int[] st = s.st;
+		boolean vector;
+
+		try
+		{
+			init(ctx, st, s.key, n, k);
+			poly1305.blocks(st, c, coffset, clen);
+			poly1305.finish(st, s.correct, 0);
+
+			if (verify_16.crypto_verify(mac, macoffset, s.correct) != 0)
+			{
+				events.authentication_failure(Metrics.OPEN, clen);
+				events.secretbox_end(event, Metrics.OPEN, started, clen, false, -1);
+				return -1;
+			}
+
+			ctx.xor(m, moffset, c, coffset, (int) clen);
+			vector = ctx.usedVector();
+		}
+		finally
+		{
+			s.release();
+		}
+
+		events.secretbox_end(event, Metrics.OPEN, started, clen, vector, 0);
+		return 0;
+	}
+
+	static public int crypto_secretbox_easy(byte[] c, int coffset, byte[] m, int moffset, long mlen, byte[] n, byte[] k)
+	{
+		return crypto_secretbox_detached(c, coffset + 16, c, coffset, m, moffset, mlen, n, k);
+	}
+
+	static public int crypto_secretbox_open_easy(byte[] m, int moffset, byte[] c, int coffset, long clen, byte[] n, byte[] k)
+	{
+		if (clen < 16)
+			return -1;
+
+		return crypto_secretbox_open_detached(m, moffset, c, coffset + 16, c, coffset, clen - 16, n, k);
+	}
+
+	/*
+	 * The verify variants check a box's authenticator without decrypting it, returning 0 if
+	 * it is authentic and -1 otherwise. No plaintext is written anywhere, and beyond the one
+	 * keystream block that holds the poly1305 key no keystream is generated, so rejecting a
+	 * forgery costs an HSalsa20, a Salsa20 block and poly1305 over the ciphertext. Opening a
+	 * box that has already been verified still costs a full open.
+	 */
+	static public int crypto_secretbox_verify_detached(byte[] c, int coffset, byte[] mac, int macoffset, long clen, byte[] n, byte[] k)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		int[] st = s.st;
+
+		try
+		{
+			init(s.ctx, st, s.key, n, k);
+			poly1305.blocks(st, c, coffset, clen);
+			poly1305.finish(st, s.correct, 0);
+
+			int result = verify_16.crypto_verify(mac, macoffset, s.correct);
+
+			if (result != 0)
+				events.authentication_failure(Metrics.VERIFY, clen);
+
+			events.secretbox_end(event, Metrics.VERIFY, started, clen, false, result);
+			return result;
+		}
+		finally
+		{
+			s.release();
+		}
+	}
+
+	static public int crypto_secretbox_verify_easy(byte[] c, int coffset, long clen, byte[] n, byte[] k)
+	{
+		if (clen < 16)
+			return -1;
+
+		return crypto_secretbox_verify_detached(c, coffset + 16, c, coffset, clen - 16, n, k);
+	}
+
+	/*
+	 * Verifies a padded box of clen bytes as produced by crypto_secretbox.
+	 */
+	static public int crypto_secretbox_verify(byte[] c, long clen, byte[] n, byte[] k)
+	{
+		if (clen < 32)
+			return -1;
+
+		return crypto_secretbox_verify_detached(c, 32, c, 16, clen - 32, n, k);
+	}
+
+	static public int crypto_secretbox_detached(ByteBuffer c, int coffset, ByteBuffer mac, int macoffset, ByteBuffer m, int moffset, int mlen, byte[] n, byte[] k)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		int length = mlen;
+		Salsa20Context ctx = s.ctx;
+		int[] st = s.st;
+
+		try
+		{
+			init(ctx, st, s.key, n, k);
+
+			while (mlen > 0)
+			{
+				int chunk = Math.min(mlen, step(ctx));
+
+				ctx.xor(c, coffset, m, moffset, chunk);
+				poly1305.blocks(st, c, coffset, chunk);
+
+				coffset += chunk;
+				moffset += chunk;
+				mlen -= chunk;
+			}
+
+			poly1305.finish(st, s.correct, 0);
+
+			for (int i = 0; i < 16; ++i)
+				mac.put(macoffset + i, s.correct[i]);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		events.secretbox_end(event, Metrics.BOX, started, length, false, 0);
+		return 0;
+	}
+
+	static public int crypto_secretbox_open_detached(ByteBuffer m, int moffset, ByteBuffer c, int coffset, ByteBuffer mac, int macoffset, int clen, byte[] n, byte[] k)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+		int[] st = s.st;
+
+		try
+		{
+			init(ctx, st, s.key, n, k);
+			poly1305.blocks(st, c, coffset, clen);
+			poly1305.finish(st, s.correct, 0);
+
+			if (verify_16.crypto_verify(mac, macoffset, s.correct) != 0)
+			{
+				events.authentication_failure(Metrics.OPEN, clen);
+				events.secretbox_end(event, Metrics.OPEN, started, clen, false, -1);
+				return -1;
+			}
+
+			ctx.xor(m, moffset, c, coffset, clen);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		events.secretbox_end(event, Metrics.OPEN, started, clen, false, 0);
+		return 0;
+	}
+
+	static public int crypto_secretbox_easy(ByteBuffer c, int coffset, ByteBuffer m, int moffset, int mlen, byte[] n, byte[] k)
+	{
+		return crypto_secretbox_detached(c, coffset + 16, c, coffset, m, moffset, mlen, n, k);
+	}
+
+	static public int crypto_secretbox_open_easy(ByteBuffer m, int moffset, ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		if (clen < 16)
+			return -1;
+
+		return crypto_secretbox_open_detached(m, moffset, c, coffset + 16, c, coffset, clen - 16, n, k);
+	}
+
+	static public int crypto_secretbox_verify_detached(ByteBuffer c, int coffset, ByteBuffer mac, int macoffset, int clen, byte[] n, byte[] k)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		int[] st = s.st;
+
+		try
+		{
+			init(s.ctx, st, s.key, n, k);
+			poly1305.blocks(st, c, coffset, clen);
+			poly1305.finish(st, s.correct, 0);
+
+			int result = verify_16.crypto_verify(mac, macoffset, s.correct);
+
+			if (result != 0)
+				events.authentication_failure(Metrics.VERIFY, clen);
+
+			events.secretbox_end(event, Metrics.VERIFY, started, clen, false, result);
+			return result;
+		}
+		finally
+		{
+			s.release();
+		}
+	}
+
+	static public int crypto_secretbox_verify_easy(ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		if (clen < 16)
+			return -1;
+
+		return crypto_secretbox_verify_detached(c, coffset + 16, c, coffset, clen - 16, n, k);
+	}
+
+	/*
+	 * Unlike the byte[] variants, m holds just the mlen plaintext bytes, without the
+	 * crypto_secretbox_ZEROBYTES of leading padding. c receives mlen + ZEROBYTES bytes
+	 * laid out exactly as crypto_secretbox would produce them for the padded message.
+	 */
+	static public int crypto_secretbox(ByteBuffer c, int coffset, ByteBuffer m, int moffset, int mlen, byte[] n, byte[] k)
+	{
+		for (int i = 0; i < 16; ++i)
+			c.put(coffset + i, (byte) 0);
+
+		return crypto_secretbox_detached(c, coffset + 32, c, coffset + 16, m, moffset, mlen, n, k);
+	}
+
+	/*
+	 * Opens a padded box of clen bytes from c into the clen - ZEROBYTES plaintext bytes at
+	 * m, leaving out the leading zero padding.
+	 */
+	static public int crypto_secretbox_open(ByteBuffer m, int moffset, ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		if (clen < 32)
+			return -1;
+
+		return crypto_secretbox_open_detached(m, moffset, c, coffset + 32, c, coffset + 16, clen - 32, n, k);
+	}
+
+	static public int crypto_secretbox_verify(ByteBuffer c, int coffset, int clen, byte[] n, byte[] k)
+	{
+		if (clen < 32)
+			return -1;
+
+		return crypto_secretbox_verify_detached(c, coffset + 32, c, coffset + 16, clen - 32, n, k);
+	}
+
+	/*
+	 * Batch versions of crypto_secretbox_easy and crypto_secretbox_open_easy, for many
+	 * independent messages under one key. Message i is the mlen[i] bytes at m[moffset[i]],
+	 * boxed with nonce n[i] into the mlen[i] + 16 bytes at c[coffset[i]], so a whole batch
+	 * can be written into one contiguous region.
+	 *
+	 * The messages are boxed one after another, exactly as the single message functions
+	 * would, but with one scratch context taken for the whole batch and one metrics record
+	 * and event for the lot, which is where the saving on small messages comes from.
+	 */
+	static public int crypto_secretbox_easy_batch(byte[] c, int[] coffset, byte[] m, int[] moffset, int[] mlen, byte[][] n, byte[] k, int count)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+		int[] st = s.st;
+		long length = 0;
+		boolean vector;
+
+		try
+		{
+			for (int i = 0; i < count; ++i)
+			{
+				int coff = coffset[i] + 16;
+				int moff = moffset[i];
+				int len = mlen[i];
+
+				init(ctx, st, s.key, n[i], k);
+				length += len;
+
+				while (len > 0)
+				{
+					int chunk = Math.min(len, step(ctx));
+
+					ctx.xor(c, coff, m, moff, chunk);
+					poly1305.blocks(st, c, coff, chunk);
+
+					coff += chunk;
+					moff += chunk;
+					len -= chunk;
+				}
+
+				poly1305.finish(st, c, coffset[i]);
+			}
+
+			vector = ctx.usedVector();
+		}
+		finally
+		{
+			s.release();
+		}
+
+		events.secretbox_end(event, Metrics.BOX_BATCH, started, length, vector, 0);
+		return 0;
+	}
+
+	/*
+	 * Opens the boxes of clen[i] bytes at c[coffset[i]] into the clen[i] - 16 bytes at
+	 * m[i][moffset[i]], setting result[i] to 0 or, if the box is too short or fails to verify,
+	 * to -1 without writing that message's output. The m[i] may all be the same array, or
+	 * each message can go straight into an array of its own. Returns the number of failures.
+	 */
+	static public int crypto_secretbox_open_easy_batch(byte[][] m, int[] moffset, byte[] c, int[] coffset, int[] clen, byte[][] n, byte[] k, int[] result, int count)
+	{
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		BufferArena.scratch s = BufferArena.scratch();
+		Salsa20Context ctx = s.ctx;
+		int[] st = s.st;
+		int failures = 0;
+		long length = 0;
+		boolean vector;
+
+		try
+		{
+			for (int i = 0; i < count; ++i)
+			{
+				if (clen[i] < 16)
+				{
+					result[i] = -1;
+					++failures;
+					events.authentication_failure(Metrics.OPEN_BATCH, 0);
+					continue;
+				}
+
+				int len = clen[i] - 16;
+
+				init(ctx, st, s.key, n[i], k);
+				poly1305.blocks(st, c, coffset[i] + 16, len);
+				poly1305.finish(st, s.correct, 0);
+				length += len;
+
+				if (verify_16.crypto_verify(c, coffset[i], s.correct) != 0)
+				{
+					result[i] = -1;
+					++failures;
+					events.authentication_failure(Metrics.OPEN_BATCH, len);
+					continue;
+				}
+
+				ctx.xor(m[i], moffset[i], c, coffset[i] + 16, len);
+				result[i] = 0;
+			}
+
+			vector = ctx.usedVector();
+		}
+		finally
+		{
+			s.release();
+		}
+
+		events.secretbox_end(event, Metrics.OPEN_BATCH, started, length, vector, failures);
+		return failures;
+	}
+
+	/*
+	 * Parallel versions of crypto_secretbox and crypto_secretbox_open for very large
+	 * messages, producing byte for byte the same output. The message is cut into segments
+	 * that start on keystream block boundaries; each segment is encrypted on the pool by its
+	 * own salsa20 context, seeked to the segment's block counter, and authenticated by its
+	 * own poly1305 chain started from zero. The chains are then joined in order by
+	 * multiplying the running accumulator by r to the power of the next segment's block
+	 * count before adding that segment's chain in. Opening runs the chains over the
+	 * ciphertext and checks the authenticator before a second pass decrypts the segments, so
+	 * as with crypto_secretbox_open_detached nothing is written for a box that does not verify.
+	 *
+	 * Messages shorter than two segments are handled by the sequential code.
+	 */
+	static public int crypto_secretbox_parallel(byte[] c, byte[] m, long mlen, byte[] n, byte[] k, ForkJoinPool pool)
+	{
+		if (mlen < 32)
+			return -1;
+
+		crypto_secretbox_detached_parallel(c, 32, c, 16, m, 32, mlen - 32, n, k, pool);
+
+		for (int i = 0; i < 16; ++i)
+			c[i] = 0;
+
+		return 0;
+	}
+
+	static public int crypto_secretbox_open_parallel(byte[] m, byte[] c, long clen, byte[] n, byte[] k, ForkJoinPool pool)
+	{
+		if (clen < 32)
+			return -1;
+
+		if (crypto_secretbox_open_detached_parallel(m, 32, c, 32, c, 16, clen - 32, n, k, pool) != 0)
+			return -1;
+
+		for (int i = 0; i < 32; ++i)
+			m[i] = 0;
+
+		return 0;
+	}
+
+	static public int crypto_secretbox_detached_parallel(byte[] c, int coffset, byte[] mac, int macoffset, byte[] m, int moffset, long mlen, byte[] n, byte[] k, ForkJoinPool pool)
+	{
+		if (mlen < 2 * SEGMENT)
+			return crypto_secretbox_detached(c, coffset, mac, macoffset, m, moffset, mlen, n, k);
+
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		int[] st = new int[poly1305.STATEWORDS];
+		segment_task[] tasks = split(st, c, coffset, m, moffset, (int) mlen, n, k, SEAL);
+		boolean vector = false;
+
+		try
+		{
+			pool.invoke(new segment_tasks(tasks));
+
+			for (segment_task task : tasks)
+			{
+				poly1305.combine(st, task.h, (task.len + 15) / 16);
+				vector |= task.vector;
+			}
+
+			poly1305.finish(st, mac, macoffset);
+		}
+		finally
+		{
+			wipe(st, tasks);
+		}
+
+		events.secretbox_end(event, Metrics.BOX_PARALLEL, started, mlen, vector, 0);
+		return 0;
+	}
+
+	static public int crypto_secretbox_open_detached_parallel(byte[] m, int moffset, byte[] c, int coffset, byte[] mac, int macoffset, long clen, byte[] n, byte[] k, ForkJoinPool pool)
+	{
+		if (clen < 2 * SEGMENT)
+			return crypto_secretbox_open_detached(m, moffset, c, coffset, mac, macoffset, clen, n, k);
+
+		long started = Metrics.start();
+		Object event = events.secretbox_begin();
+		byte[] correct = new byte[16];
+		int[] st = new int[poly1305.STATEWORDS];
+		segment_task[] tasks = split(st, m, moffset, c, coffset, (int) clen, n, k, CHECK);
+		boolean vector = false;
+
+		try
+		{
+			pool.invoke(new segment_tasks(tasks));
+
+			for (segment_task task : tasks)
+				poly1305.combine(st, task.h, (task.len + 15) / 16);
+
+			poly1305.finish(st, correct, 0);
+
+			if (verify_16.crypto_verify(mac, macoffset, correct) != 0)
+			{
+				events.authentication_failure(Metrics.OPEN_PARALLEL, clen);
+				events.secretbox_end(event, Metrics.OPEN_PARALLEL, started, clen, false, -1);
+				return -1;
+			}
+
+			for (segment_task task : tasks)
+			{
+				task.reinitialize();
+				task.mode = DECRYPT;
+			}
+
+			pool.invoke(new segment_tasks(tasks));
+
+			for (segment_task task : tasks)
+				vector |= task.vector;
+		}
+		finally
+		{
+			wipe(st, tasks);
+
+			for (int i = 0; i < 16; ++i)
+				correct[i] = 0;
+		}
+
+		events.secretbox_end(event, Metrics.OPEN_PARALLEL, started, clen, vector, 0);
+		return 0;
+	}
+
+	/*
+	 * Sets up st with the poly1305 key for n and k and cuts the len bytes into segments.
+	 * The first ends 32 bytes short of SEGMENT, since the message starts half way into
+	 * keystream block 0, so that every later segment starts on a block boundary.
+	 */
+	static segment_task[] split(int[] st, byte[] out, int outoffset, byte[] in, int inoffset, int len, byte[] n, byte[] k, int mode)
+	{
+		BufferArena.scratch s = BufferArena.scratch();
+		int count = (len + 32 + SEGMENT - 1) / SEGMENT;
+		segment_task[] tasks = new segment_task[count];
+
+		try
+		{
+			init(s.ctx, st, s.key, n, k);
+		}
+		finally
+		{
+			s.release();
+		}
+
+		for (int i = 0, position = 0; i < count; ++i)
+		{
+			int end = Math.min(len, (i + 1) * SEGMENT - 32);
+
+			tasks[i] = new segment_task(st, out, outoffset + position, in, inoffset + position, position, end - position, n, k, mode);
+			position = end;
+		}
+
+		return tasks;
+	}
+
+	/*
+	 * Zeroes the poly1305 state of a parallel call: r and s in st, and the key and partial
+	 * accumulator each task holds.
+	 */
+	static void wipe(int[] st, segment_task[] tasks)
+	{
+		Arrays.fill(st, 0);
+
+		for (segment_task task : tasks)
+		{
+			Arrays.fill(task.r, 0);
+			Arrays.fill(task.h, 0);
+		}
+	}
+
+	static final class segment_tasks extends RecursiveAction
+	{
+		private final segment_task[] tasks;
+
+		segment_tasks(segment_task[] tasks)
+		{
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute()
+		{
+			invokeAll(tasks);
+		}
+	}
+
+	/*
+	 * Works on one segment. SEAL encrypts it and runs its poly1305 chain over the
+	 * ciphertext, CHECK only runs the chain over the ciphertext in in, and DECRYPT only
+	 * decrypts. The chain's accumulator is left in h, and whether the vector engine ran in
+	 * vector.
+	 */
+	static final class segment_task extends RecursiveAction
+	{
+		final int[] h = new int[5];
+		final int len;
+		final int[] r = new int[5];
+		int mode;
+		boolean vector;
+		private final byte[] out;
+		private final int outoffset;
+		private final byte[] in;
+		private final int inoffset;
+		private final int position;
+		private final byte[] n;
+		private final byte[] k;
+
+		segment_task(int[] st, byte[] out, int outoffset, byte[] in, int inoffset, int position, int len, byte[] n, byte[] k, int mode)
+		{
+			System.arraycopy(st, 0, r, 0, 5);
+			this.out = out;
+			this.outoffset = outoffset;
+			this.in = in;
+			this.inoffset = inoffset;
+			this.position = position;
+			this.len = len;
+			this.n = n;
+			this.k = k;
+			this.mode = mode;
+		}
+
+		@Override
+		protected void compute()
+		{
+			Salsa20Context ctx = new Salsa20Context();
+			int[] st = new int[poly1305.STATEWORDS];
+			int outpos = outoffset, inpos = inoffset, left = len;
+
+			try
+			{
+				System.arraycopy(r, 0, st, 0, 5);
+
+				if (mode == CHECK)
+					poly1305.blocks(st, in, inoffset, len);
+				else
+				{
+					ctx.initXSalsa20(k, n);
+					ctx.seek(32 + position);
+
+					while (left > 0)
+					{
+						int chunk = Math.min(left, step(ctx));
+
+						ctx.xor(out, outpos, in, inpos, chunk);
+
+						if (mode == SEAL)
+							poly1305.blocks(st, out, outpos, chunk);
+
+						outpos += chunk;
+						inpos += chunk;
+						left -= chunk;
+					}
+
+					vector = ctx.usedVector();
+				}
+
+				if (mode != DECRYPT)
+					System.arraycopy(st, 5, h, 0, 5);
+			}
+			finally
+			{
+				Arrays.fill(st, 0);
+				ctx.wipe();
+			}
+		}
+	}
 }
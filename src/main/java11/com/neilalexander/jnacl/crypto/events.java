@@ -0,0 +1,202 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Java 11 and later version of the event hooks, which update Metrics as the baseline does
+ * and also emit JDK Flight Recorder events. The events are all disabled by default; turn
+ * them on in a recording's settings, e.g.
+ *
+ *     com.neilalexander.jnacl.SecretBox#enabled=true
+ *
+ * While an event is disabled its begin hook is a single check of a flag and allocates
+ * nothing. If the jdk.jfr module is missing from the runtime, nothing is ever recorded.
+ */
+final class events
+{
+	private static final EventType SECRETBOX = type(secretbox.class);
+	private static final EventType BEFORENM = type(beforenm.class);
+	private static final EventType FAILURE = type(authentication_failure.class);
+
+	private events()
+	{
+	}
+
+	static Object secretbox_begin()
+	{
+		if (SECRETBOX == null || !SECRETBOX.isEnabled())
+			return null;
+
+		secretbox e = new secretbox();
+		e.begin();
+		return e;
+	}
+
+	static void secretbox_end(Object event, int operation, long start, long length, boolean vector, int result)
+	{
+		Metrics.record(operation, start, length);
+
+		if (event == null)
+			return;
+
+		secretbox e = (secretbox) event;
+		e.end();
+
+		if (e.shouldCommit())
+		{
+			e.operation = Metrics.name(operation);
+			e.length = length;
+			e.engine = vector ? "vector" : "scalar";
+			e.result = result;
+			e.commit();
+		}
+	}
+
+	static Object beforenm_begin()
+	{
+		if (BEFORENM == null || !BEFORENM.isEnabled())
+			return null;
+
+		beforenm e = new beforenm();
+		e.begin();
+		return e;
+	}
+
+	static void beforenm_end(Object event, long start, int keys, int result)
+	{
+		Metrics.record(Metrics.BEFORENM, start, 32L * keys);
+
+		if (event == null)
+			return;
+
+		beforenm e = (beforenm) event;
+		e.end();
+
+		if (e.shouldCommit())
+		{
+			e.keys = keys;
+			e.success = result == 0;
+			e.commit();
+		}
+	}
+
+	static void authentication_failure(int operation, long length)
+	{
+		Metrics.failure(operation);
+
+		if (FAILURE == null || !FAILURE.isEnabled())
+			return;
+
+		authentication_failure e = new authentication_failure();
+
+		if (e.shouldCommit())
+		{
+			e.operation = Metrics.name(operation);
+			e.length = length;
+			e.commit();
+		}
+	}
+
+	private static EventType type(Class<? extends Event> event)
+	{
+		try
+		{
+			return EventType.getEventType(event);
+		}
+		catch (Throwable e)
+		{
+			/* no jdk.jfr module, or flight recorder disabled on this JVM */
+			return null;
+		}
+	}
+
+	@Name("com.neilalexander.jnacl.SecretBox")
+	@Label("Secretbox")
+	@Description("Authenticated encryption or decryption of one message, or of a batch of messages")
+	@Category("jnacl")
+	@Enabled(false)
+	@StackTrace(false)
+	static final class secretbox extends Event
+	{
+		@Label("Operation")
+		String operation;
+
+		@Label("Length")
+		@DataAmount
+		long length;
+
+		@Label("Engine")
+		@Description("Keystream engine the operation used, scalar or vector")
+		String engine;
+
+		@Label("Result")
+		@Description("0 on success and -1 on failure, or for a batch the number of messages that failed")
+		int result;
+	}
+
+	@Name("com.neilalexander.jnacl.KeyAgreement")
+	@Label("Key Agreement")
+	@Description("crypto_box_beforenm for one or more public keys")
+	@Category("jnacl")
+	@Enabled(false)
+	@StackTrace(false)
+	static final class beforenm extends Event
+	{
+		@Label("Keys")
+		int keys;
+
+		@Label("Success")
+		boolean success;
+	}
+
+	@Name("com.neilalexander.jnacl.AuthenticationFailure")
+	@Label("Authentication Failure")
+	@Description("A box that failed to verify")
+	@Category("jnacl")
+	@Enabled(false)
+	@StackTrace(false)
+	static final class authentication_failure extends Event
+	{
+		@Label("Operation")
+		String operation;
+
+		@Label("Length")
+		@DataAmount
+		long length;
+	}
+}
@@ -0,0 +1,163 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * Multi-block salsa20 on the incubating Vector API. Each of the sixteen state words is held
+ * in one IntVector whose lanes belong to consecutive block counters, so a double round
+ * advances 4, 8 or 16 blocks at once depending on the preferred vector width (SSE or NEON,
+ * AVX2, AVX-512). The results are stored word-major into scratch, then read back a block at
+ * a time and XORed into the message a long at a time. They are not transposed with a vector
+ * gather: on JDK 17, C2 miscompiles the indexed IntVector.fromArray here once the method is
+ * hot, and all but the first word of each step's keystream comes out wrong.
+ *
+ * Needs --add-modules jdk.incubator.vector; without it loading this class fails and
+ * Salsa20Context keeps to the scalar core.
+ */
+final class Salsa20VectorEngine implements Salsa20Engine
+{
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final int LANES = INTS.length();
+
+	private Salsa20VectorEngine()
+	{
+	}
+
+	/*
+	 * Returns an engine, or null if the preferred vector shape does not hold 4 to 16 ints
+	 * or the platform is not little endian.
+	 */
+	static Salsa20VectorEngine create()
+	{
+		if (LANES < 4 || LANES > 16 || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			return null;
+
+		return new Salsa20VectorEngine();
+	}
+
+	@Override
+	public int blocks()
+	{
+		return LANES;
+	}
+
+	@Override
+	public void xor(int[] state, long counter, int[] scratch, byte[] out, int outoffset, byte[] in, int inoffset)
+	{
+		IntVector j0 = IntVector.broadcast(INTS, state[0]);
+		IntVector j1 = IntVector.broadcast(INTS, state[1]);
+		IntVector j2 = IntVector.broadcast(INTS, state[2]);
+		IntVector j3 = IntVector.broadcast(INTS, state[3]);
+		IntVector j4 = IntVector.broadcast(INTS, state[4]);
+		IntVector j5 = IntVector.broadcast(INTS, state[5]);
+		IntVector j6 = IntVector.broadcast(INTS, state[6]);
+		IntVector j7 = IntVector.broadcast(INTS, state[7]);
+		IntVector j8 = IntVector.broadcast(INTS, (int) counter).addIndex(1);
+		VectorMask<Integer> carry = j8.compare(VectorOperators.UNSIGNED_LT, (int) counter);
+		IntVector j9 = IntVector.broadcast(INTS, (int)(counter >>> 32)).add(1, carry);
+		IntVector j10 = IntVector.broadcast(INTS, state[10]);
+		IntVector j11 = IntVector.broadcast(INTS, state[11]);
+		IntVector j12 = IntVector.broadcast(INTS, state[12]);
+		IntVector j13 = IntVector.broadcast(INTS, state[13]);
+		IntVector j14 = IntVector.broadcast(INTS, state[14]);
+		IntVector j15 = IntVector.broadcast(INTS, state[15]);
+
+		IntVector x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+		IntVector x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+
+		for (int i = salsa20.ROUNDS; i > 0; i -= 2)
+		{
+			x4 = x4.lanewise(VectorOperators.XOR, x0.add(x12).lanewise(VectorOperators.ROL, 7));
+			x8 = x8.lanewise(VectorOperators.XOR, x4.add(x0).lanewise(VectorOperators.ROL, 9));
+			x12 = x12.lanewise(VectorOperators.XOR, x8.add(x4).lanewise(VectorOperators.ROL, 13));
+			x0 = x0.lanewise(VectorOperators.XOR, x12.add(x8).lanewise(VectorOperators.ROL, 18));
+			x9 = x9.lanewise(VectorOperators.XOR, x5.add(x1).lanewise(VectorOperators.ROL, 7));
+			x13 = x13.lanewise(VectorOperators.XOR, x9.add(x5).lanewise(VectorOperators.ROL, 9));
+			x1 = x1.lanewise(VectorOperators.XOR, x13.add(x9).lanewise(VectorOperators.ROL, 13));
+			x5 = x5.lanewise(VectorOperators.XOR, x1.add(x13).lanewise(VectorOperators.ROL, 18));
+			x14 = x14.lanewise(VectorOperators.XOR, x10.add(x6).lanewise(VectorOperators.ROL, 7));
+			x2 = x2.lanewise(VectorOperators.XOR, x14.add(x10).lanewise(VectorOperators.ROL, 9));
+			x6 = x6.lanewise(VectorOperators.XOR, x2.add(x14).lanewise(VectorOperators.ROL, 13));
+			x10 = x10.lanewise(VectorOperators.XOR, x6.add(x2).lanewise(VectorOperators.ROL, 18));
+			x3 = x3.lanewise(VectorOperators.XOR, x15.add(x11).lanewise(VectorOperators.ROL, 7));
+			x7 = x7.lanewise(VectorOperators.XOR, x3.add(x15).lanewise(VectorOperators.ROL, 9));
+			x11 = x11.lanewise(VectorOperators.XOR, x7.add(x3).lanewise(VectorOperators.ROL, 13));
+			x15 = x15.lanewise(VectorOperators.XOR, x11.add(x7).lanewise(VectorOperators.ROL, 18));
+			x1 = x1.lanewise(VectorOperators.XOR, x0.add(x3).lanewise(VectorOperators.ROL, 7));
+			x2 = x2.lanewise(VectorOperators.XOR, x1.add(x0).lanewise(VectorOperators.ROL, 9));
+			x3 = x3.lanewise(VectorOperators.XOR, x2.add(x1).lanewise(VectorOperators.ROL, 13));
+			x0 = x0.lanewise(VectorOperators.XOR, x3.add(x2).lanewise(VectorOperators.ROL, 18));
+			x6 = x6.lanewise(VectorOperators.XOR, x5.add(x4).lanewise(VectorOperators.ROL, 7));
+			x7 = x7.lanewise(VectorOperators.XOR, x6.add(x5).lanewise(VectorOperators.ROL, 9));
+			x4 = x4.lanewise(VectorOperators.XOR, x7.add(x6).lanewise(VectorOperators.ROL, 13));
+			x5 = x5.lanewise(VectorOperators.XOR, x4.add(x7).lanewise(VectorOperators.ROL, 18));
+			x11 = x11.lanewise(VectorOperators.XOR, x10.add(x9).lanewise(VectorOperators.ROL, 7));
+			x8 = x8.lanewise(VectorOperators.XOR, x11.add(x10).lanewise(VectorOperators.ROL, 9));
+			x9 = x9.lanewise(VectorOperators.XOR, x8.add(x11).lanewise(VectorOperators.ROL, 13));
+			x10 = x10.lanewise(VectorOperators.XOR, x9.add(x8).lanewise(VectorOperators.ROL, 18));
+			x12 = x12.lanewise(VectorOperators.XOR, x15.add(x14).lanewise(VectorOperators.ROL, 7));
+			x13 = x13.lanewise(VectorOperators.XOR, x12.add(x15).lanewise(VectorOperators.ROL, 9));
+			x14 = x14.lanewise(VectorOperators.XOR, x13.add(x12).lanewise(VectorOperators.ROL, 13));
+			x15 = x15.lanewise(VectorOperators.XOR, x14.add(x13).lanewise(VectorOperators.ROL, 18));
+		}
+
+		/* word-major: word i of block b lands in scratch[i * LANES + b] */
+		x0.add(j0).intoArray(scratch, 0);
+		x1.add(j1).intoArray(scratch, LANES);
+		x2.add(j2).intoArray(scratch, 2 * LANES);
+		x3.add(j3).intoArray(scratch, 3 * LANES);
+		x4.add(j4).intoArray(scratch, 4 * LANES);
+		x5.add(j5).intoArray(scratch, 5 * LANES);
+		x6.add(j6).intoArray(scratch, 6 * LANES);
+		x7.add(j7).intoArray(scratch, 7 * LANES);
+		x8.add(j8).intoArray(scratch, 8 * LANES);
+		x9.add(j9).intoArray(scratch, 9 * LANES);
+		x10.add(j10).intoArray(scratch, 10 * LANES);
+		x11.add(j11).intoArray(scratch, 11 * LANES);
+		x12.add(j12).intoArray(scratch, 12 * LANES);
+		x13.add(j13).intoArray(scratch, 13 * LANES);
+		x14.add(j14).intoArray(scratch, 14 * LANES);
+		x15.add(j15).intoArray(scratch, 15 * LANES);
+
+		for (int b = 0, offset = 0; b < LANES; ++b, offset += 64)
+		{
+			for (int i = 0; i < 16; i += 2)
+			{
+				long word = (scratch[i * LANES + b] & 0xffffffffL) | ((long) scratch[(i + 1) * LANES + b] << 32);
+				littleendian.store_64(out, outoffset + offset + 4 * i, littleendian.load_64(in, inoffset + offset + 4 * i) ^ word);
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.BufferArena;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BufferArenaTest {
+
+  @Test
+  public void test_released_arrays_are_wiped_and_reused() throws Exception {
+    BufferArena arena = new BufferArena();
+
+    byte[] first = arena.acquire(100);
+    assertThat(first.length).isEqualTo(128);
+    assertThat(arena.misses()).isEqualTo(1);
+
+    Arrays.fill(first, (byte) 0x5a);
+    arena.release(first);
+    assertThat(arena.idleBytes()).isEqualTo(128);
+
+    byte[] second = arena.acquire(70);
+    assertThat(second).isSameAs(first);
+    assertThat(second).isEqualTo(new byte[128]);
+    assertThat(arena.hits()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_released_direct_buffers_are_wiped_and_reused() throws Exception {
+    BufferArena arena = new BufferArena();
+
+    ByteBuffer first = arena.acquireDirect(1000);
+    assertThat(first.isDirect()).isTrue();
+    assertThat(first.capacity()).isEqualTo(1024);
+    assertThat(first.limit()).isEqualTo(1000);
+
+    while (first.hasRemaining())
+      first.put((byte) 0x5a);
+    arena.release(first);
+
+    ByteBuffer second = arena.acquireDirect(600);
+    assertThat(second).isSameAs(first);
+    assertThat(second.position()).isEqualTo(0);
+    assertThat(second.limit()).isEqualTo(600);
+
+    byte[] contents = new byte[1024];
+    second.limit(1024);
+    second.get(contents);
+    assertThat(contents).isEqualTo(new byte[1024]);
+  }
+
+  @Test
+  public void test_oversized_requests_are_not_pooled() throws Exception {
+    BufferArena arena = new BufferArena();
+
+    byte[] huge = arena.acquire((16 << 20) + 1);
+    assertThat(huge.length).isEqualTo((16 << 20) + 1);
+    arena.release(huge);
+
+    assertThat(arena.idleBytes()).isEqualTo(0);
+    assertThat(arena.misses()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_primitives_reuse_thread_scratch() throws Exception {
+    byte[] key = new byte[32];
+    byte[] nonce = new byte[24];
+    byte[] m = new byte[32 + 100];
+    byte[] c = new byte[m.length];
+
+    xsalsa20poly1305.crypto_secretbox(c, m, m.length, nonce, key);
+    long hits = BufferArena.shared().hits();
+
+    for (int i = 0; i < 10; i++) {
+      xsalsa20poly1305.crypto_secretbox(c, m, m.length, nonce, key);
+      assertThat(xsalsa20poly1305.crypto_secretbox_open(m, c, c.length, nonce, key)).isEqualTo(0);
+    }
+
+    assertThat(BufferArena.shared().hits() - hits).isGreaterThanOrEqualTo(20);
+  }
+}
@@ -0,0 +1,154 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.curve25519;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class Curve25519Test {
+
+  @Test
+  public void test_rfc7748_vectors() throws Exception {
+    assertThat(scalarmult(
+        "a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4",
+        "e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c"))
+        .isEqualTo("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552");
+    // RFC 7748 masks bit 255 of the u-coordinate, NaCl does not, so the top bit is cleared here
+    assertThat(scalarmult(
+        "4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d",
+        "e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a413"))
+        .isEqualTo("95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957");
+  }
+
+  @Test
+  public void test_nacl_box_keys() throws Exception {
+    byte[] alicesk = NaCl.getBinary("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    byte[] alicepk = new byte[32];
+    curve25519.crypto_scalarmult_base(alicepk, alicesk);
+
+    assertThat(NaCl.asHex(alicepk)).isEqualTo("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+  }
+
+  @Test
+  public void test_matches_reference_implementation() throws Exception {
+    Random random = new Random(25519);
+
+    for (int run = 0; run < 50; run++) {
+      byte[] n = new byte[32];
+      byte[] p = new byte[32];
+      random.nextBytes(n);
+      random.nextBytes(p);
+
+      // include non-canonical points and points with the top bit set
+      if (run % 10 == 0)
+        Arrays.fill(p, (byte) 0xff);
+
+      byte[] expected = new byte[32];
+      byte[] actual = new byte[32];
+      Curve25519Reference.crypto_scalarmult(expected, n, p);
+      curve25519.crypto_scalarmult(actual, n, p);
+
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void test_scalarmult_base_matches_variable_base() throws Exception {
+    Random random = new Random(8);
+    byte[] basepoint = new byte[32];
+    basepoint[0] = 9;
+
+    for (int run = 0; run < 200; run++) {
+      byte[] n = new byte[32];
+      random.nextBytes(n);
+
+      // edge scalars exercising the extreme signed digits
+      if (run == 0)
+        Arrays.fill(n, (byte) 0x00);
+      if (run == 1)
+        Arrays.fill(n, (byte) 0xff);
+      if (run == 2)
+        Arrays.fill(n, (byte) 0x88);
+
+      byte[] expected = new byte[32];
+      byte[] actual = new byte[32];
+      Curve25519Reference.crypto_scalarmult(expected, n, basepoint);
+      curve25519.crypto_scalarmult_base(actual, n);
+
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void test_batch_matches_individual_beforenm() throws Exception {
+    Random random = new Random(9);
+    byte[] sk = new byte[32];
+    byte[][] pks = new byte[100][32];
+    byte[][] batch = new byte[100][32];
+    random.nextBytes(sk);
+
+    for (byte[] pk : pks)
+      random.nextBytes(pk);
+
+    // low order points give a zero shared secret, which must not disturb the rest of the batch
+    Arrays.fill(pks[3], (byte) 0);
+    pks[50] = new byte[32];
+    pks[50][0] = 1;
+
+    assertThat(curve25519xsalsa20poly1305.crypto_box_beforenm_batch(batch, pks, sk)).isEqualTo(0);
+
+    for (int i = 0; i < pks.length; i++) {
+      byte[] single = new byte[32];
+      curve25519xsalsa20poly1305.crypto_box_beforenm(single, pks[i], sk);
+      assertThat(batch[i]).isEqualTo(single);
+    }
+  }
+
+  @Test
+  public void test_batch_of_one_and_none() throws Exception {
+    byte[] sk = NaCl.getBinary("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    byte[] pk = NaCl.getBinary("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+    byte[][] q = new byte[1][32];
+
+    assertThat(curve25519.crypto_scalarmult_batch(q, sk, new byte[][] { pk })).isEqualTo(0);
+    assertThat(NaCl.asHex(q[0])).isEqualTo("4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742");
+    assertThat(curve25519.crypto_scalarmult_batch(new byte[0][], sk, new byte[0][])).isEqualTo(0);
+  }
+
+  private static String scalarmult(String n, String p) {
+    byte[] q = new byte[32];
+    curve25519.crypto_scalarmult(q, NaCl.getBinary(n), NaCl.getBinary(p));
+    return NaCl.asHex(q);
+  }
+}
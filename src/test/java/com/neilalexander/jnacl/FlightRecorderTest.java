@@ -0,0 +1,151 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.Salsa20Context;
+import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FlightRecorderTest {
+  private static String privatekey = "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a";
+  private static String publickey = "de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f";
+
+  @Test
+  public void test_events_are_recorded_when_enabled() throws Exception {
+    skipWithoutEvents();
+
+    byte[] nonce = new byte[24];
+    byte[] message = new byte[1234];
+
+    List<RecordedEvent> events = record(() -> {
+      NaCl nacl = new NaCl(privatekey, publickey);
+      byte[] box = nacl.encrypt(message, nonce);
+      nacl.decrypt(box, nonce);
+      box[box.length - 1] ^= 1;
+      nacl.verify(box, nonce);
+    });
+
+    assertThat(find(events, "com.neilalexander.jnacl.KeyAgreement", null, 0)).isNotNull();
+
+    RecordedEvent boxed = find(events, "com.neilalexander.jnacl.SecretBox", "box", 1234);
+    assertThat(boxed.getInt("result")).isEqualTo(0);
+    assertThat(boxed.getString("engine")).isIn("scalar", "vector");
+
+    assertThat(find(events, "com.neilalexander.jnacl.SecretBox", "open", 1234).getInt("result")).isEqualTo(0);
+    RecordedEvent verified = find(events, "com.neilalexander.jnacl.SecretBox", "verify", 1234);
+    assertThat(verified.getInt("result")).isEqualTo(-1);
+    // verify generates no keystream beyond the poly1305 key block
+    assertThat(verified.getString("engine")).isEqualTo("scalar");
+    assertThat(find(events, "com.neilalexander.jnacl.AuthenticationFailure", "verify", 1234)).isNotNull();
+  }
+
+  @Test
+  public void test_large_messages_use_the_vector_engine_when_available() throws Exception {
+    skipWithoutEvents();
+
+    byte[] nonce = new byte[24];
+    byte[] message = new byte[64 * 1024];
+    String expected = Salsa20Context.vectorized() ? "vector" : "scalar";
+
+    byte[] key = new byte[32];
+    byte[] large = new byte[3 * 1024 * 1024 + 32];
+    byte[] box = new byte[large.length];
+
+    List<RecordedEvent> events = record(() -> {
+      NaCl nacl = new NaCl(privatekey, publickey);
+      nacl.decrypt(nacl.encrypt(message, nonce), nonce);
+
+      xsalsa20poly1305.crypto_secretbox_parallel(box, large, large.length, nonce, key, ForkJoinPool.commonPool());
+      xsalsa20poly1305.crypto_secretbox_open_parallel(large, box, box.length, nonce, key, ForkJoinPool.commonPool());
+    });
+
+    assertThat(find(events, "com.neilalexander.jnacl.SecretBox", "box", message.length).getString("engine")).isEqualTo(expected);
+    assertThat(find(events, "com.neilalexander.jnacl.SecretBox", "open", message.length).getString("engine")).isEqualTo(expected);
+    assertThat(find(events, "com.neilalexander.jnacl.SecretBox", "box parallel", large.length - 32).getString("engine")).isEqualTo(expected);
+    assertThat(find(events, "com.neilalexander.jnacl.SecretBox", "open parallel", large.length - 32).getString("engine")).isEqualTo(expected);
+  }
+
+  private static void skipWithoutEvents() {
+    if (System.getProperty("java.specification.version").startsWith("1."))
+      throw new SkipException("Flight recorder events need Java 11 or later");
+
+    try {
+      Class.forName("com.neilalexander.jnacl.crypto.events$secretbox");
+    } catch (ClassNotFoundException e) {
+      throw new SkipException("Built without the Java 11 layer");
+    }
+  }
+
+  private static List<RecordedEvent> record(Work work) throws Exception {
+    try (Recording recording = new Recording()) {
+      recording.enable("com.neilalexander.jnacl.SecretBox");
+      recording.enable("com.neilalexander.jnacl.KeyAgreement");
+      recording.enable("com.neilalexander.jnacl.AuthenticationFailure");
+      recording.start();
+
+      work.run();
+
+      recording.stop();
+
+      Path file = Files.createTempFile("jnacl", ".jfr");
+      try {
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file);
+      } finally {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static RecordedEvent find(List<RecordedEvent> events, String name, String operation, long length) {
+    for (RecordedEvent event : events) {
+      if (!event.getEventType().getName().equals(name))
+        continue;
+
+      if (operation == null || (operation.equals(event.getString("operation")) && event.getLong("length") == length))
+        return event;
+    }
+
+    throw new AssertionError("no " + name + " event for " + operation);
+  }
+
+  private interface Work {
+    void run() throws Exception;
+  }
+}
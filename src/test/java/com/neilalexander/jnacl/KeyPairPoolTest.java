@@ -0,0 +1,152 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.KeyPairPool;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class KeyPairPoolTest {
+
+  @Test
+  public void test_keypair_without_pool_is_valid() throws Exception {
+    byte[] pk = new byte[32];
+    byte[] sk = new byte[32];
+
+    curve25519xsalsa20poly1305.crypto_box_keypair(pk, sk);
+
+    assertValid(pk, sk);
+  }
+
+  @Test
+  public void test_pool_fills_and_hands_out_each_key_once() throws Exception {
+    KeyPairPool pool = new KeyPairPool(8, 2);
+
+    try {
+      awaitFull(pool);
+      assertThat(pool.refillLag(TimeUnit.NANOSECONDS)).isEqualTo(0);
+
+      Set<String> seen = new HashSet<String>();
+
+      for (int i = 0; i < 8; i++) {
+        byte[] pk = new byte[32];
+        byte[] sk = new byte[32];
+        pool.take(pk, sk);
+
+        assertValid(pk, sk);
+        assertThat(seen.add(NaCl.asHex(sk))).isTrue();
+      }
+
+      assertThat(pool.hits() + pool.misses()).isEqualTo(8);
+      assertThat(pool.hits()).isGreaterThan(0);
+    } finally {
+      pool.close();
+    }
+
+    assertThat(pool.depth()).isEqualTo(0);
+  }
+
+  @Test
+  public void test_installed_pool_serves_crypto_box_keypair() throws Exception {
+    KeyPairPool pool = new KeyPairPool(4);
+    curve25519xsalsa20poly1305.crypto_box_set_keypair_pool(pool);
+
+    try {
+      awaitFull(pool);
+
+      byte[] pk = new byte[32];
+      byte[] sk = new byte[32];
+      curve25519xsalsa20poly1305.crypto_box_keypair(pk, sk);
+
+      assertValid(pk, sk);
+      assertThat(pool.hits()).isEqualTo(1);
+    } finally {
+      curve25519xsalsa20poly1305.crypto_box_set_keypair_pool(null);
+      pool.close();
+    }
+  }
+
+  @Test
+  public void test_refill_lag_counts_from_the_take_not_from_when_the_pool_filled() throws Exception {
+    KeyPairPool pool = new KeyPairPool(1);
+
+    try {
+      awaitFull(pool);
+      Thread.sleep(1000);
+
+      byte[] pk = new byte[32];
+      byte[] sk = new byte[32];
+      pool.take(pk, sk);
+
+      assertThat(pool.hits()).isEqualTo(1);
+      assertThat(pool.refillLag(TimeUnit.MILLISECONDS)).isLessThan(500);
+
+      awaitFull(pool);
+      assertThat(pool.refillLag(TimeUnit.NANOSECONDS)).isEqualTo(0);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void test_closed_pool_generates_on_caller_thread() throws Exception {
+    KeyPairPool pool = new KeyPairPool(4);
+    pool.close();
+
+    byte[] pk = new byte[32];
+    byte[] sk = new byte[32];
+    pool.take(pk, sk);
+
+    assertValid(pk, sk);
+    assertThat(pool.misses()).isEqualTo(1);
+    assertThat(pool.refillLag(TimeUnit.NANOSECONDS)).isGreaterThan(0);
+  }
+
+  private static void awaitFull(KeyPairPool pool) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+
+    while (pool.depth() < pool.capacity() && System.nanoTime() < deadline)
+      Thread.sleep(5);
+
+    assertThat(pool.depth()).isEqualTo(pool.capacity());
+  }
+
+  private static void assertValid(byte[] pk, byte[] sk) {
+    byte[] expected = new byte[32];
+    curve25519xsalsa20poly1305.crypto_box_getpublickey(expected, sk);
+
+    assertThat(pk).isEqualTo(expected);
+    assertThat(sk).isNotEqualTo(new byte[32]);
+  }
+}
@@ -0,0 +1,136 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.Metrics;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MetricsTest {
+  private static String privatekey = "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a";
+  private static String publickey = "de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f";
+
+  @Test
+  public void test_operations_bytes_and_failures_are_counted() throws Exception {
+    Metrics metrics = Metrics.get();
+    NaCl nacl = new NaCl(privatekey, publickey);
+    byte[] nonce = new byte[24];
+    byte[] box = nacl.encrypt(new byte[100], nonce);
+
+    metrics.reset();
+
+    nacl.encrypt(new byte[100], nonce);
+    nacl.decrypt(box, nonce);
+    box[box.length - 1] ^= 1;
+    nacl.decrypt(box, nonce);
+    nacl.verify(box, nonce);
+
+    Metrics.Snapshot boxes = metrics.getOperation("box");
+    assertThat(boxes.getCount()).isEqualTo(1);
+    assertThat(boxes.getBytes()).isEqualTo(100);
+    assertThat(boxes.getFailures()).isEqualTo(0);
+
+    Metrics.Snapshot opens = metrics.getOperation("open");
+    assertThat(opens.getCount()).isEqualTo(2);
+    assertThat(opens.getBytes()).isEqualTo(200);
+    assertThat(opens.getFailures()).isEqualTo(1);
+
+    assertThat(metrics.getOperation("verify").getFailures()).isEqualTo(1);
+    assertThat(metrics.getAuthenticationFailures()).isEqualTo(2);
+
+    long total = 0;
+    for (long n : opens.getHistogram())
+      total += n;
+    assertThat(total).isEqualTo(2);
+    assertThat(opens.getP99Nanos()).isGreaterThan(0);
+    assertThat(opens.getP99Nanos()).isGreaterThanOrEqualTo(opens.getMedianNanos());
+  }
+
+  @Test
+  public void test_batch_key_agreement_counts_every_key() throws Exception {
+    Metrics metrics = Metrics.get();
+    byte[] sk = new byte[32];
+    byte[][] pks = new byte[10][32];
+    byte[][] keys = new byte[10][32];
+
+    for (int i = 0; i < pks.length; i++)
+      curve25519xsalsa20poly1305.crypto_box_keypair(pks[i], new byte[32]);
+
+    metrics.reset();
+    curve25519xsalsa20poly1305.crypto_box_beforenm_batch(keys, pks, sk);
+
+    Metrics.Snapshot beforenm = metrics.getOperation("beforenm");
+    assertThat(beforenm.getCount()).isEqualTo(1);
+    assertThat(beforenm.getBytes()).isEqualTo(32 * 10);
+  }
+
+  @Test
+  public void test_disabled_metrics_record_nothing() throws Exception {
+    Metrics metrics = Metrics.get();
+    NaCl nacl = new NaCl(privatekey, publickey);
+
+    metrics.reset();
+    metrics.setEnabled(false);
+
+    try {
+      nacl.encrypt(new byte[10], new byte[24]);
+    } finally {
+      metrics.setEnabled(true);
+    }
+
+    assertThat(metrics.getOperation("box").getCount()).isEqualTo(0);
+    assertThat(metrics.getOperation("beforenm").getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void test_metrics_are_published_over_jmx() throws Exception {
+    Metrics metrics = Metrics.get();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+
+    metrics.reset();
+    new NaCl(privatekey, publickey).encrypt(new byte[10], new byte[24]);
+
+    assertThat(server.isRegistered(name)).isTrue();
+    assertThat(server.getAttribute(name, "Enabled")).isEqualTo(Boolean.TRUE);
+    assertThat(server.getAttribute(name, "BufferArenaHits")).isInstanceOf(Long.class);
+
+    CompositeData[] operations = (CompositeData[]) server.getAttribute(name, "Operations");
+    CompositeData box = operations[0];
+    assertThat(box.get("operation")).isEqualTo("box");
+    assertThat(box.get("count")).isEqualTo(1L);
+    assertThat(box.get("bytes")).isEqualTo(10L);
+  }
+}
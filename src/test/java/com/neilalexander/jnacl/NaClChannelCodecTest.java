@@ -0,0 +1,322 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+public class NaClChannelCodecTest {
+  private static String publickey = "0cba66066896ffb51e92bc3c36ffa627c2493770d9b0b4368a2466c801b0184e";
+  private static String privatekey = "176970653848be5242059e2308dfa30245b93a13befd2ebd09f09b971273b728";
+
+  @Test
+  public void test_round_trip_with_partial_reads_and_writes() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec sender = new NaClChannelCodec(nacl, 1000);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl, 1000);
+    Random random = new Random(18);
+    List<byte[]> messages = new ArrayList<>();
+
+    for (int i = 0; i < 40; i++) {
+      byte[] message = new byte[random.nextInt(1001)];
+      random.nextBytes(message);
+      messages.add(message);
+      sender.encode(ByteBuffer.wrap(message));
+    }
+
+    TrickleChannel wire = new TrickleChannel(37);
+    while (!sender.write(wire))
+      wire.unblock();
+
+    wire.unblock();
+    byte[] bytes = wire.toByteArray();
+    ReadableByteChannel in = new ReadableByteChannel() {
+      int offset;
+
+      public int read(ByteBuffer dst) {
+        if (offset == bytes.length)
+          return -1;
+        int n = Math.min(Math.min(dst.remaining(), 13), bytes.length - offset);
+        dst.put(bytes, offset, n);
+        offset += n;
+        return n;
+      }
+
+      public boolean isOpen() {
+        return true;
+      }
+
+      public void close() {
+      }
+    };
+
+    List<byte[]> received = new ArrayList<>();
+    while (receiver.read(in) >= 0) {
+      for (ByteBuffer message; (message = receiver.decode()) != null; ) {
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        received.add(copy);
+      }
+    }
+
+    assertThat(received).hasSize(messages.size());
+    for (int i = 0; i < messages.size(); i++)
+      assertThat(received.get(i)).isEqualTo(messages.get(i));
+  }
+
+  @Test
+  public void test_over_non_blocking_pipe() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec sender = new NaClChannelCodec(nacl);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl);
+    Pipe pipe = Pipe.open();
+    pipe.sink().configureBlocking(false);
+    pipe.source().configureBlocking(false);
+
+    byte[] message = new byte[50000];
+    new Random(50000).nextBytes(message);
+    for (int i = 0; i < 10; i++)
+      sender.encode(ByteBuffer.wrap(message));
+
+    int received = 0;
+    while (received < 10) {
+      sender.write(pipe.sink());
+      receiver.read(pipe.source());
+
+      for (ByteBuffer m; (m = receiver.decode()) != null; received++) {
+        byte[] copy = new byte[m.remaining()];
+        m.get(copy);
+        assertThat(copy).isEqualTo(message);
+      }
+    }
+
+    assertThat(sender.hasPending()).isFalse();
+    pipe.sink().close();
+    pipe.source().close();
+  }
+
+  @Test
+  public void test_forged_frame_is_rejected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec sender = new NaClChannelCodec(nacl);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl);
+
+    sender.encode(ByteBuffer.wrap("attack at dawn".getBytes()));
+    TrickleChannel wire = new TrickleChannel(Integer.MAX_VALUE);
+    sender.write(wire);
+
+    byte[] bytes = wire.toByteArray();
+    bytes[bytes.length - 1] ^= 1;
+
+    receiver.read(new SingleRead(bytes));
+    try {
+      receiver.decode();
+      fail("expected the forged frame to be rejected");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void test_replayed_frame_is_rejected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec sender = new NaClChannelCodec(nacl);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl);
+    byte[] frame = frames(sender, "first")[0];
+
+    receiver.read(new SingleRead(concat(frame, frame)));
+    assertThat(receiver.decode()).isNotNull();
+    assertRejected(receiver);
+  }
+
+  @Test
+  public void test_reordered_frame_is_rejected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec sender = new NaClChannelCodec(nacl);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl);
+    byte[][] frames = frames(sender, "first", "second", "third");
+
+    receiver.read(new SingleRead(concat(frames[0], frames[2])));
+    assertThat(receiver.decode()).isNotNull();
+    assertRejected(receiver);
+
+    NaClChannelCodec other = new NaClChannelCodec(nacl);
+    other.read(new SingleRead(frames[1]));
+    assertRejected(other);
+  }
+
+  @Test
+  public void test_reflected_frame_is_rejected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec codec = new NaClChannelCodec(nacl);
+
+    codec.read(new SingleRead(frames(codec, "hello")[0]));
+    assertRejected(codec);
+  }
+
+  @Test
+  public void test_frame_from_another_sender_is_rejected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl);
+    byte[] first = frames(new NaClChannelCodec(nacl), "first")[0];
+    byte[][] others = frames(new NaClChannelCodec(nacl), "other", "second");
+
+    receiver.read(new SingleRead(concat(first, others[1])));
+    assertThat(receiver.decode()).isNotNull();
+    assertRejected(receiver);
+  }
+
+  @Test
+  public void test_oversized_frame_is_rejected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    NaClChannelCodec receiver = new NaClChannelCodec(nacl, 100);
+
+    receiver.read(new SingleRead(new byte[] {(byte) 0xff, (byte) 0xff, 0, 0}));
+    try {
+      receiver.decode();
+      fail("expected the frame length to be rejected");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static byte[][] frames(NaClChannelCodec sender, String... messages) throws IOException {
+    byte[][] frames = new byte[messages.length][];
+
+    for (int i = 0; i < messages.length; i++) {
+      TrickleChannel wire = new TrickleChannel(Integer.MAX_VALUE);
+      sender.encode(ByteBuffer.wrap(messages[i].getBytes()));
+      sender.write(wire);
+      frames[i] = wire.toByteArray();
+    }
+
+    return frames;
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] both = new byte[a.length + b.length];
+    System.arraycopy(a, 0, both, 0, a.length);
+    System.arraycopy(b, 0, both, a.length, b.length);
+    return both;
+  }
+
+  private static void assertRejected(NaClChannelCodec receiver) {
+    try {
+      receiver.decode();
+      fail("expected the frame to be rejected");
+    } catch (IOException expected) {
+    }
+  }
+
+  /*
+   * Accepts at most limit bytes per write, and then nothing until unblocked, like a socket
+   * with a full send buffer.
+   */
+  private static class TrickleChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    private final int limit;
+    private boolean blocked;
+
+    TrickleChannel(int limit) {
+      this.limit = limit;
+    }
+
+    void unblock() {
+      blocked = false;
+    }
+
+    byte[] toByteArray() {
+      return sink.toByteArray();
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      if (blocked)
+        return 0;
+
+      long written = 0;
+      for (int i = offset; i < offset + length && written < limit; i++) {
+        while (srcs[i].hasRemaining() && written < limit) {
+          sink.write(srcs[i].get());
+          written++;
+        }
+      }
+
+      blocked = true;
+      return written;
+    }
+
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    public int write(ByteBuffer src) {
+      return (int) write(new ByteBuffer[] {src});
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public void close() {
+    }
+  }
+
+  private static class SingleRead implements ReadableByteChannel {
+    private final byte[] bytes;
+    private boolean done;
+
+    SingleRead(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    public int read(ByteBuffer dst) {
+      if (done)
+        return -1;
+      done = true;
+      dst.put(bytes);
+      return bytes.length;
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,166 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+public class NaClFileTest {
+  private static String publickey = "0cba66066896ffb51e92bc3c36ffa627c2493770d9b0b4368a2466c801b0184e";
+  private static String privatekey = "176970653848be5242059e2308dfa30245b93a13befd2ebd09f09b971273b728";
+  private static final int CHUNK = 4096;
+
+  private Path dir;
+  private ForkJoinPool pool;
+  private NaClFile file;
+
+  @BeforeClass
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("naclfile");
+    pool = new ForkJoinPool(4);
+    file = new NaClFile(new NaCl(privatekey, publickey), CHUNK, pool);
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception {
+    pool.shutdown();
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void test_round_trip() throws Exception {
+    for (int length : new int[] {0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 100 * CHUNK + 17}) {
+      byte[] data = bytes(length);
+      Path plain = write("plain", data);
+      Path boxed = dir.resolve("boxed");
+      Path opened = dir.resolve("opened");
+
+      file.encrypt(plain, boxed);
+      assertThat(Files.size(boxed)).isEqualTo(NaClFile.encryptedSize(length, CHUNK));
+
+      file.decrypt(boxed, opened);
+      assertThat(Files.readAllBytes(opened)).isEqualTo(data);
+    }
+  }
+
+  @Test
+  public void test_decrypt_single_chunk() throws Exception {
+    byte[] data = bytes(10 * CHUNK + 100);
+    Path boxed = dir.resolve("random-access");
+    file.encrypt(write("plain-random-access", data), boxed);
+
+    try (FileChannel in = FileChannel.open(boxed, StandardOpenOption.READ)) {
+      assertThat(file.chunks(in)).isEqualTo(11);
+
+      for (int index : new int[] {0, 7, 10}) {
+        ByteBuffer out = ByteBuffer.allocate(CHUNK);
+        int length = file.decryptChunk(in, index, out);
+
+        assertThat(length).isEqualTo(index == 10 ? 100 : CHUNK);
+        assertThat(Arrays.copyOf(out.array(), length)).isEqualTo(Arrays.copyOfRange(data, index * CHUNK, index * CHUNK + length));
+      }
+    }
+  }
+
+  @Test
+  public void test_truncation_is_detected() throws Exception {
+    byte[] boxed = encrypt(bytes(5 * CHUNK));
+
+    // dropping the last chunk leaves a valid looking file whose new last chunk is not marked final
+    expectFailure(Arrays.copyOf(boxed, boxed.length - (CHUNK + 16)));
+    expectFailure(Arrays.copyOf(boxed, boxed.length - 1));
+  }
+
+  @Test
+  public void test_reordering_is_detected() throws Exception {
+    byte[] boxed = encrypt(bytes(5 * CHUNK));
+    int stride = CHUNK + 16;
+    byte[] swapped = boxed.clone();
+
+    System.arraycopy(boxed, 24 + stride, swapped, 24 + 2 * stride, stride);
+    System.arraycopy(boxed, 24 + 2 * stride, swapped, 24 + stride, stride);
+
+    expectFailure(swapped);
+  }
+
+  @Test
+  public void test_failed_decrypt_leaves_no_plaintext() throws Exception {
+    byte[] boxed = encrypt(bytes(5 * CHUNK));
+    boxed[boxed.length - 1] ^= 1;
+    Path opened = dir.resolve("opened-tampered");
+
+    try {
+      file.decrypt(write("tampered", boxed), opened);
+      fail("expected the tampered chunk to be rejected");
+    } catch (IOException e) {
+      assertThat(Files.size(opened)).isEqualTo(0);
+    }
+  }
+
+  private byte[] encrypt(byte[] data) throws Exception {
+    Path boxed = dir.resolve("boxed-" + data.length);
+    file.encrypt(write("plain-" + data.length, data), boxed);
+    return Files.readAllBytes(boxed);
+  }
+
+  private void expectFailure(byte[] boxed) throws Exception {
+    try {
+      file.decrypt(write("bad", boxed), dir.resolve("bad-opened"));
+      fail("expected the modified file to be rejected");
+    } catch (IOException expected) {
+    }
+  }
+
+  private Path write(String name, byte[] data) throws IOException {
+    return Files.write(dir.resolve(name), data);
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] buf = new byte[length];
+    new Random(length).nextBytes(buf);
+    return buf;
+  }
+}
@@ -0,0 +1,177 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.testng.Assert.fail;
+
+public class NaClStreamTest {
+  private static String publickey = "0cba66066896ffb51e92bc3c36ffa627c2493770d9b0b4368a2466c801b0184e";
+  private static String privatekey = "176970653848be5242059e2308dfa30245b93a13befd2ebd09f09b971273b728";
+  private static final int FRAME = 1000;
+
+  @Test
+  public void test_round_trip() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+
+    for (int length : new int[] {0, 1, FRAME - 1, FRAME, FRAME + 1, 37 * FRAME + 5}) {
+      byte[] data = bytes(length);
+      byte[] boxed = encrypt(nacl, data);
+
+      assertThat(readAll(new NaClInputStream(new ByteArrayInputStream(boxed), nacl))).isEqualTo(data);
+    }
+  }
+
+  @Test
+  public void test_single_byte_reads_and_writes() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    byte[] data = bytes(2500);
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+    try (NaClOutputStream out = new NaClOutputStream(sink, nacl, FRAME)) {
+      for (byte b : data)
+        out.write(b);
+    }
+
+    NaClInputStream in = new NaClInputStream(new ByteArrayInputStream(sink.toByteArray()), nacl);
+    byte[] actual = new byte[data.length];
+    for (int i = 0; i < actual.length; i++)
+      actual[i] = (byte) in.read();
+
+    assertThat(actual).isEqualTo(data);
+    assertThat(in.read()).isEqualTo(-1);
+  }
+
+  @Test
+  public void test_default_frame_fills_a_pooled_buffer_exactly() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+    assertThat(NaClOutputStream.DEFAULT_FRAME_SIZE + NaClOutputStream.FRAME_OVERHEAD).isEqualTo(1 << 16);
+
+    try (NaClOutputStream out = new NaClOutputStream(sink, nacl)) {
+      out.write(bytes(NaClOutputStream.DEFAULT_FRAME_SIZE + 1));
+    }
+
+    byte[] boxed = sink.toByteArray();
+    assertThat(boxed.length).isEqualTo(24 + (1 << 16) + 20 + 1);
+    assertThat(readAll(new NaClInputStream(new ByteArrayInputStream(boxed), nacl)).length)
+        .isEqualTo(NaClOutputStream.DEFAULT_FRAME_SIZE + 1);
+  }
+
+  @Test
+  public void test_flush_seals_a_frame() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    NaClOutputStream out = new NaClOutputStream(sink, nacl, FRAME);
+
+    out.write(new byte[] {1, 2, 3});
+    out.flush();
+    assertThat(sink.size()).isEqualTo(24 + 20 + 3);
+
+    NaClInputStream in = new NaClInputStream(new ByteArrayInputStream(sink.toByteArray()), nacl);
+    byte[] actual = new byte[3];
+    assertThat(in.read(actual)).isEqualTo(3);
+    assertThat(actual).isEqualTo(new byte[] {1, 2, 3});
+  }
+
+  @Test
+  public void test_truncation_is_detected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    byte[] data = bytes(5 * FRAME);
+    byte[] boxed = encrypt(nacl, data);
+
+    // cut exactly at a frame boundary, losing only the final frame
+    expectFailure(nacl, Arrays.copyOf(boxed, boxed.length - (FRAME + 20)));
+    expectFailure(nacl, Arrays.copyOf(boxed, boxed.length - 1));
+  }
+
+  @Test
+  public void test_tampering_is_detected() throws Exception {
+    NaCl nacl = new NaCl(privatekey, publickey);
+    byte[] boxed = encrypt(nacl, bytes(3 * FRAME));
+    boxed[24 + FRAME + 20 + 30] ^= 1;
+
+    NaClInputStream in = new NaClInputStream(new ByteArrayInputStream(boxed), nacl);
+    byte[] first = new byte[FRAME];
+    assertThat(in.read(first)).isEqualTo(FRAME);
+
+    try {
+      in.read(new byte[FRAME]);
+      fail("expected the tampered frame to be rejected");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static byte[] encrypt(NaCl nacl, byte[] data) throws IOException {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    Random random = new Random(data.length);
+
+    try (NaClOutputStream out = new NaClOutputStream(sink, nacl, FRAME)) {
+      for (int offset = 0; offset < data.length; ) {
+        int piece = Math.min(data.length - offset, random.nextInt(2 * FRAME) + 1);
+        out.write(data, offset, piece);
+        offset += piece;
+      }
+    }
+
+    return sink.toByteArray();
+  }
+
+  private static void expectFailure(NaCl nacl, byte[] boxed) throws IOException {
+    try {
+      readAll(new NaClInputStream(new ByteArrayInputStream(boxed), nacl));
+      fail("expected the modified stream to be rejected");
+    } catch (IOException expected) {
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[333];
+    for (int read; (read = in.read(buf)) != -1; )
+      out.write(buf, 0, read);
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] buf = new byte[length];
+    new Random(length).nextBytes(buf);
+    return buf;
+  }
+}
@@ -29,6 +29,10 @@ package com.neilalexander.jnacl;
 
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import static org.fest.assertions.Assertions.assertThat;
 
 public class NaClTest {
@@ -48,4 +52,136 @@ public class NaClTest {
     assertThat(NaCl.asHex(foo)).isEqualTo("00000000000000000000000000000000c0267362f8612dba2bd704aae3f6da44eaed");
     assertThat(NaCl.asHex(bar)).isEqualTo("6869");
   }
+
+  @Test
+  public void verify_checks_box_without_decrypting() throws Exception {
+    NaCl test = new NaCl(privatekey, publickey);
+    byte[] box = test.encrypt("hi".getBytes(), nonce);
+
+    assertThat(test.verify(box, nonce)).isTrue();
+
+    ByteBuffer buffer = ByteBuffer.allocate(box.length + 3);
+    buffer.position(3);
+    buffer.mark();
+    buffer.put(box).reset();
+    assertThat(test.verify(buffer, nonce)).isTrue();
+    assertThat(buffer.position()).isEqualTo(3);
+
+    box[box.length - 1] ^= 1;
+    assertThat(test.verify(box, nonce)).isFalse();
+    assertThat(test.verify(new byte[31], nonce)).isFalse();
+  }
+
+  @Test
+  public void for_peers_matches_individual_instances() throws Exception {
+    byte[] other = NaCl.getBinary("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+    NaCl[] peers = NaCl.forPeers(NaCl.getBinary(privatekey), new byte[][] { NaCl.getBinary(publickey), other });
+    byte[] in = "hi".getBytes();
+
+    assertThat(peers).hasSize(2);
+    assertThat(peers[0].encrypt(in, nonce)).isEqualTo(new NaCl(privatekey, publickey).encrypt(in, nonce));
+    assertThat(peers[1].encrypt(in, nonce)).isEqualTo(new NaCl(NaCl.getBinary(privatekey), other).encrypt(in, nonce));
+  }
+
+  @Test
+  public void bytebuffer_encrypt_matches_byte_array_encrypt() throws Exception {
+    NaCl test = new NaCl(privatekey, publickey);
+    byte[] in = new byte[1000];
+    for (int i = 0; i < in.length; i++)
+      in[i] = (byte) i;
+
+    ByteBuffer heap = ByteBuffer.wrap(in);
+    ByteBuffer direct = ByteBuffer.allocateDirect(in.length + 40);
+    direct.position(8);
+
+    assertThat(test.encrypt(heap, direct, nonce)).isEqualTo(in.length + 32);
+    assertThat(heap.remaining()).isEqualTo(0);
+    assertThat(direct.position()).isEqualTo(in.length + 40);
+
+    byte[] foo = new byte[in.length + 32];
+    direct.position(8);
+    direct.get(foo);
+
+    assertThat(foo).isEqualTo(test.encrypt(in, nonce));
+  }
+
+  @Test
+  public void bytebuffer_decrypt_roundtrip() throws Exception {
+    NaCl test = new NaCl(privatekey, publickey);
+    byte[] in = "hello, world".getBytes();
+    byte[] foo = test.encrypt(in, nonce);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(foo.length);
+    direct.put(foo).flip();
+    ByteBuffer bar = ByteBuffer.allocate(in.length);
+
+    assertThat(test.decrypt(direct, bar, nonce)).isEqualTo(in.length);
+    assertThat(bar.array()).isEqualTo(in);
+    assertThat(direct.remaining()).isEqualTo(0);
+  }
+
+  @Test
+  public void bytebuffer_decrypt_rejects_forgery() throws Exception {
+    NaCl test = new NaCl(privatekey, publickey);
+    byte[] foo = test.encrypt("hi".getBytes(), nonce);
+    foo[foo.length - 1] ^= 1;
+
+    ByteBuffer input = ByteBuffer.wrap(foo);
+    ByteBuffer bar = ByteBuffer.allocate(2);
+
+    assertThat(test.decrypt(input, bar, nonce)).isEqualTo(-1);
+    assertThat(bar.array()).isEqualTo(new byte[2]);
+    assertThat(input.position()).isEqualTo(0);
+    assertThat(bar.position()).isEqualTo(0);
+  }
+
+  @Test
+  public void batch_matches_one_at_a_time() throws Exception {
+    NaCl test = new NaCl(privatekey, publickey);
+    int[] lengths = {0, 1, 31, 32, 33, 100, 1000};
+    byte[][] inputs = new byte[lengths.length][];
+    byte[][] nonces = new byte[lengths.length][24];
+    int[] boxlengths = new int[lengths.length];
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+    for (int i = 0; i < lengths.length; i++) {
+      inputs[i] = new byte[lengths[i]];
+      Arrays.fill(inputs[i], (byte) i);
+      nonces[i][0] = (byte) i;
+      boxlengths[i] = lengths[i] + 32;
+      expected.write(test.encrypt(inputs[i], nonces[i]));
+    }
+
+    byte[] boxes = test.encryptBatch(inputs, nonces);
+    assertThat(boxes).isEqualTo(expected.toByteArray());
+
+    byte[][] outputs = test.decryptBatch(boxes, boxlengths, nonces);
+    for (int i = 0; i < lengths.length; i++)
+      assertThat(outputs[i]).isEqualTo(inputs[i]);
+  }
+
+  @Test
+  public void batch_decrypt_reports_each_forgery() throws Exception {
+    NaCl test = new NaCl(privatekey, publickey);
+    byte[][] inputs = new byte[6][50];
+    byte[][] nonces = new byte[6][24];
+    int[] boxlengths = new int[6];
+
+    for (int i = 0; i < 6; i++) {
+      nonces[i][23] = (byte) i;
+      boxlengths[i] = 82;
+    }
+
+    byte[] boxes = test.encryptBatch(inputs, nonces);
+    boxes[2 * 82 + 40] ^= 1;
+    boxes[5 * 82 + 20] ^= 1;
+
+    byte[][] outputs = test.decryptBatch(boxes, boxlengths, nonces);
+    for (int i = 0; i < 6; i++) {
+      if (i == 2 || i == 5)
+        assertThat(outputs[i]).isNull();
+      else
+        assertThat(outputs[i]).isEqualTo(inputs[i]);
+    }
+  }
 }
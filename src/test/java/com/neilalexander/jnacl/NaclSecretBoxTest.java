@@ -1,9 +1,17 @@
 package com.neilalexander.jnacl;
 
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import com.neilalexander.jnacl.crypto.poly1305;
+import com.neilalexander.jnacl.crypto.xsalsa20;
 import com.neilalexander.jnacl.crypto.xsalsa20poly1305;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.fest.assertions.Assertions.assertThat;
 
 public class NaclSecretBoxTest {
@@ -56,4 +64,253 @@ public class NaclSecretBoxTest {
     assertThat(ciphertext).isEqualTo(expected_ciphertext);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void test_crypto_secretbox_easy_matches_padded_box() throws Exception {
+    byte[] padded = new byte[64];
+    xsalsa20poly1305.crypto_secretbox(padded, plaintext, plaintext.length, nonce, key);
+
+    byte[] easy = new byte[8 + 16 + 32];
+    xsalsa20poly1305.crypto_secretbox_easy(easy, 8, plaintext, 32, 32, nonce, key);
+
+    assertThat(Arrays.copyOfRange(easy, 8, easy.length)).isEqualTo(Arrays.copyOfRange(padded, 16, 64));
+  }
+
+  @Test
+  public void test_crypto_secretbox_detached_in_place() throws Exception {
+    byte[] padded = new byte[64];
+    xsalsa20poly1305.crypto_secretbox(padded, plaintext, plaintext.length, nonce, key);
+
+    byte[] buf = Arrays.copyOfRange(plaintext, 32, 64);
+    byte[] mac = new byte[16];
+    xsalsa20poly1305.crypto_secretbox_detached(buf, 0, mac, 0, buf, 0, buf.length, nonce, key);
+
+    assertThat(mac).isEqualTo(Arrays.copyOfRange(padded, 16, 32));
+    assertThat(buf).isEqualTo(Arrays.copyOfRange(padded, 32, 64));
+
+    assertThat(xsalsa20poly1305.crypto_secretbox_open_detached(buf, 0, buf, 0, mac, 0, buf.length, nonce, key)).isEqualTo(0);
+    assertThat(buf).isEqualTo(Arrays.copyOfRange(plaintext, 32, 64));
+  }
+
+  @Test
+  public void test_crypto_secretbox_open_easy_rejects_forgery() throws Exception {
+    byte[] easy = new byte[16 + 32];
+    xsalsa20poly1305.crypto_secretbox_easy(easy, 0, plaintext, 32, 32, nonce, key);
+
+    byte[] opened = new byte[32];
+    assertThat(xsalsa20poly1305.crypto_secretbox_open_easy(opened, 0, easy, 0, easy.length, nonce, key)).isEqualTo(0);
+    assertThat(opened).isEqualTo(Arrays.copyOfRange(plaintext, 32, 64));
+
+    for (int i = 0; i < easy.length; i++) {
+      byte[] forged = easy.clone();
+      forged[i] ^= 0x80;
+      byte[] untouched = new byte[32];
+      assertThat(xsalsa20poly1305.crypto_secretbox_open_easy(untouched, 0, forged, 0, forged.length, nonce, key)).isEqualTo(-1);
+      assertThat(untouched).isEqualTo(new byte[32]);
+    }
+  }
+
+  @Test
+  public void test_crypto_secretbox_verify_accepts_boxes_and_rejects_forgeries() throws Exception {
+    byte[] padded = new byte[64];
+    xsalsa20poly1305.crypto_secretbox(padded, plaintext, plaintext.length, nonce, key);
+    byte[] easy = Arrays.copyOfRange(padded, 16, 64);
+
+    assertThat(xsalsa20poly1305.crypto_secretbox_verify(padded, padded.length, nonce, key)).isEqualTo(0);
+    assertThat(xsalsa20poly1305.crypto_secretbox_verify_easy(easy, 0, easy.length, nonce, key)).isEqualTo(0);
+    assertThat(xsalsa20poly1305.crypto_secretbox_verify_easy(ByteBuffer.wrap(easy), 0, easy.length, nonce, key)).isEqualTo(0);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(64);
+    direct.put(padded).flip();
+    assertThat(xsalsa20poly1305.crypto_secretbox_verify(direct, 0, 64, nonce, key)).isEqualTo(0);
+
+    for (int i = 0; i < easy.length; i++) {
+      byte[] forged = easy.clone();
+      forged[i] ^= 0x01;
+      byte[] copy = forged.clone();
+
+      assertThat(xsalsa20poly1305.crypto_secretbox_verify_easy(forged, 0, forged.length, nonce, key)).isEqualTo(-1);
+      assertThat(forged).isEqualTo(copy);
+    }
+
+    assertThat(xsalsa20poly1305.crypto_secretbox_verify_easy(easy, 0, 15, nonce, key)).isEqualTo(-1);
+    assertThat(xsalsa20poly1305.crypto_secretbox_verify(padded, 31, nonce, key)).isEqualTo(-1);
+  }
+
+  @Test
+  public void test_crypto_box_easy_roundtrip() throws Exception {
+    byte[] alicesk = new byte[32], alicepk = new byte[32];
+    byte[] bobsk = new byte[32], bobpk = new byte[32];
+    curve25519xsalsa20poly1305.crypto_box_keypair(alicepk, alicesk);
+    curve25519xsalsa20poly1305.crypto_box_keypair(bobpk, bobsk);
+
+    byte[] m = "attack at dawn".getBytes();
+    byte[] c = new byte[m.length + curve25519xsalsa20poly1305.crypto_secretbox_MACBYTES];
+    curve25519xsalsa20poly1305.crypto_box_easy(c, 0, m, 0, m.length, nonce, bobpk, alicesk);
+
+    byte[] opened = new byte[m.length];
+    assertThat(curve25519xsalsa20poly1305.crypto_box_open_easy(opened, 0, c, 0, c.length, nonce, alicepk, bobsk)).isEqualTo(0);
+    assertThat(opened).isEqualTo(m);
+  }
+
+  @Test
+  public void test_single_pass_secretbox_matches_two_pass_construction() throws Exception {
+    Random random = new Random(1305);
+    int[] lengths = {0, 1, 15, 16, 17, 31, 32, 33, 63, 64, 65, 95, 96, 97, 1000, 4096, 65537};
+
+    for (int length : lengths) {
+      byte[] m = new byte[length + 32];
+      random.nextBytes(m);
+      Arrays.fill(m, 0, 32, (byte) 0);
+
+      byte[] expected = new byte[m.length];
+      xsalsa20.crypto_stream_xor(expected, m, m.length, nonce, key);
+      poly1305.crypto_onetimeauth(expected, 16, expected, 32, length, expected);
+      Arrays.fill(expected, 0, 16, (byte) 0);
+
+      byte[] c = new byte[m.length];
+      xsalsa20poly1305.crypto_secretbox(c, m, m.length, nonce, key);
+      assertThat(c).isEqualTo(expected);
+
+      byte[] opened = new byte[c.length];
+      assertThat(xsalsa20poly1305.crypto_secretbox_open(opened, c, c.length, nonce, key)).isEqualTo(0);
+      assertThat(opened).isEqualTo(m);
+    }
+  }
+
+  @Test
+  public void test_single_pass_open_writes_nothing_for_forgery() throws Exception {
+    byte[] m = new byte[32 + 200];
+    Arrays.fill(m, 32, m.length, (byte) 0x55);
+    byte[] c = new byte[m.length];
+    xsalsa20poly1305.crypto_secretbox(c, m, m.length, nonce, key);
+    c[c.length - 1] ^= 1;
+
+    byte[] opened = new byte[c.length];
+    Arrays.fill(opened, (byte) 0x77);
+    byte[] untouched = opened.clone();
+    assertThat(xsalsa20poly1305.crypto_secretbox_open(opened, c, c.length, nonce, key)).isEqualTo(-1);
+    assertThat(opened).isEqualTo(untouched);
+  }
+
+  @Test
+  public void test_forged_box_opened_in_place_is_left_intact() throws Exception {
+    byte[] m = new byte[300];
+    Arrays.fill(m, (byte) 0x55);
+    byte[] box = new byte[m.length + 16];
+    xsalsa20poly1305.crypto_secretbox_easy(box, 0, m, 0, m.length, nonce, key);
+    box[box.length - 1] ^= 1;
+
+    byte[] forged = box.clone();
+    assertThat(xsalsa20poly1305.crypto_secretbox_open_easy(box, 16, box, 0, box.length, nonce, key)).isEqualTo(-1);
+    assertThat(box).isEqualTo(forged);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(box.length);
+    buffer.put(box);
+    assertThat(xsalsa20poly1305.crypto_secretbox_open_easy(buffer, 16, buffer, 0, box.length, nonce, key)).isEqualTo(-1);
+
+    byte[] after = new byte[box.length];
+    buffer.position(0);
+    buffer.get(after);
+    assertThat(after).isEqualTo(forged);
+  }
+
+  @Test
+  public void test_parallel_secretbox_matches_sequential() throws Exception {
+    Random random = new Random(2014);
+    int[] lengths = {2 << 20, (2 << 20) + 7, (7 << 19) + 13};
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      for (int length : lengths) {
+        byte[] m = new byte[length + 32];
+        random.nextBytes(m);
+        Arrays.fill(m, 0, 32, (byte) 0);
+
+        byte[] expected = new byte[m.length];
+        xsalsa20poly1305.crypto_secretbox(expected, m, m.length, nonce, key);
+
+        byte[] c = new byte[m.length];
+        assertThat(xsalsa20poly1305.crypto_secretbox_parallel(c, m, m.length, nonce, key, pool)).isEqualTo(0);
+        assertThat(c).isEqualTo(expected);
+
+        byte[] opened = new byte[c.length];
+        assertThat(xsalsa20poly1305.crypto_secretbox_open_parallel(opened, c, c.length, nonce, key, pool)).isEqualTo(0);
+        assertThat(opened).isEqualTo(m);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void test_parallel_open_writes_nothing_for_forgery() throws Exception {
+    byte[] m = new byte[32 + (5 << 19)];
+    Arrays.fill(m, 32, m.length, (byte) 0x55);
+    byte[] c = new byte[m.length];
+    xsalsa20poly1305.crypto_secretbox(c, m, m.length, nonce, key);
+    c[(2 << 20) + 1] ^= 1;
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      byte[] opened = new byte[c.length];
+      Arrays.fill(opened, (byte) 0x77);
+      assertThat(xsalsa20poly1305.crypto_secretbox_open_parallel(opened, c, c.length, nonce, key, pool)).isEqualTo(-1);
+      byte[] untouched = new byte[c.length];
+      Arrays.fill(untouched, (byte) 0x77);
+      assertThat(opened).isEqualTo(untouched);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void test_batch_secretbox_matches_single_messages() throws Exception {
+    Random random = new Random(2020);
+    int[] mlen = {0, 1, 15, 16, 17, 31, 32, 33, 64, 95, 96, 97, 600, 5000};
+    int count = mlen.length;
+    int[] moffset = new int[count];
+    int[] coffset = new int[count];
+    byte[][] nonces = new byte[count][24];
+    int mtotal = 0, ctotal = 0;
+
+    for (int i = 0; i < count; i++) {
+      moffset[i] = mtotal;
+      coffset[i] = ctotal;
+      mtotal += mlen[i] + 3;
+      ctotal += mlen[i] + 16;
+      random.nextBytes(nonces[i]);
+    }
+
+    byte[] m = new byte[mtotal];
+    random.nextBytes(m);
+    byte[] c = new byte[ctotal];
+    xsalsa20poly1305.crypto_secretbox_easy_batch(c, coffset, m, moffset, mlen, nonces, key, count);
+
+    int[] clen = new int[count];
+    for (int i = 0; i < count; i++) {
+      byte[] expected = new byte[mlen[i] + 16];
+      xsalsa20poly1305.crypto_secretbox_easy(expected, 0, m, moffset[i], mlen[i], nonces[i], key);
+      assertThat(Arrays.copyOfRange(c, coffset[i], coffset[i] + mlen[i] + 16)).isEqualTo(expected);
+      clen[i] = mlen[i] + 16;
+    }
+
+    c[coffset[5] + 16] ^= 1;
+
+    byte[] opened = new byte[mtotal];
+    byte[][] outputs = new byte[count][];
+    Arrays.fill(outputs, opened);
+    int[] result = new int[count];
+    assertThat(xsalsa20poly1305.crypto_secretbox_open_easy_batch(outputs, moffset, c, coffset, clen, nonces, key, result, count)).isEqualTo(1);
+
+    for (int i = 0; i < count; i++) {
+      byte[] actual = Arrays.copyOfRange(opened, moffset[i], moffset[i] + mlen[i]);
+      if (i == 5) {
+        assertThat(result[i]).isEqualTo(-1);
+        assertThat(actual).isEqualTo(new byte[mlen[i]]);
+      } else {
+        assertThat(result[i]).isEqualTo(0);
+        assertThat(actual).isEqualTo(Arrays.copyOfRange(m, moffset[i], moffset[i] + mlen[i]));
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class NonceSequencerTest {
+  private static final int THREADS = 8;
+  private static final int PER_THREAD = 5000;
+
+  @Test
+  public void test_counter_nonces_are_unique_across_threads() throws Exception {
+    assertUnique(NonceSequencer.counter());
+  }
+
+  @Test
+  public void test_striped_nonces_are_unique_across_threads() throws Exception {
+    assertUnique(NonceSequencer.striped());
+  }
+
+  @Test
+  public void test_hybrid_nonces_are_unique_across_threads() throws Exception {
+    assertUnique(NonceSequencer.hybrid(1000));
+  }
+
+  @Test
+  public void test_counter_is_little_endian_after_prefix() throws Exception {
+    byte[] prefix = new byte[16];
+    Arrays.fill(prefix, (byte) 7);
+    NonceSequencer nonces = NonceSequencer.counter(prefix, 0x0102);
+
+    byte[] nonce = nonces.next();
+    assertThat(Arrays.copyOf(nonce, 16)).isEqualTo(prefix);
+    assertThat(nonce[16]).isEqualTo((byte) 0x02);
+    assertThat(nonce[17]).isEqualTo((byte) 0x01);
+    assertThat(nonces.highWaterMark()).isEqualTo(0x0103);
+  }
+
+  @Test
+  public void test_resuming_from_high_water_mark_does_not_repeat() throws Exception {
+    NonceSequencer first = NonceSequencer.striped();
+    Set<String> seen = new HashSet<String>();
+
+    for (int i = 0; i < 10; i++)
+      seen.add(NaCl.asHex(first.next()));
+
+    NonceSequencer resumed = NonceSequencer.striped(first.prefix(), first.highWaterMark());
+
+    for (int i = 0; i < 3 * NonceSequencer.STRIPE; i++)
+      assertThat(seen.add(NaCl.asHex(resumed.next()))).isTrue();
+  }
+
+  @Test
+  public void test_exhausted_counter_throws() throws Exception {
+    NonceSequencer nonces = NonceSequencer.counter(new byte[16], Long.MAX_VALUE);
+    nonces.next();
+
+    try {
+      nonces.next();
+      throw new AssertionError("expected the counter to be exhausted");
+    } catch (IllegalStateException expected) {
+    }
+
+    assertThat(nonces.highWaterMark()).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void test_hybrid_refreshes_prefix() throws Exception {
+    NonceSequencer nonces = NonceSequencer.hybrid(2);
+    byte[] first = nonces.next();
+    nonces.next();
+    byte[] third = nonces.next();
+
+    assertThat(Arrays.copyOf(third, 16)).isNotEqualTo(Arrays.copyOf(first, 16));
+    assertThat(third[16]).isEqualTo((byte) 0);
+  }
+
+  @Test
+  public void test_encrypt_with_nonce_roundtrip() throws Exception {
+    byte[] alice = NaCl.getBinary("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    byte[] bobpublic = NaCl.getBinary("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+    NaCl nacl = new NaCl(alice, bobpublic);
+    byte[] message = "attack at dawn".getBytes("UTF-8");
+
+    byte[] first = nacl.encryptWithNonce(message);
+    byte[] second = nacl.encryptWithNonce(message);
+    assertThat(first.length).isEqualTo(message.length + 40);
+    assertThat(Arrays.copyOf(first, 24)).isNotEqualTo(Arrays.copyOf(second, 24));
+
+    assertThat(nacl.decryptWithNonce(first)).isEqualTo(message);
+
+    first[first.length - 1] ^= 1;
+    assertThat(nacl.decryptWithNonce(first)).isNull();
+    assertThat(nacl.decryptWithNonce(new byte[39])).isNull();
+  }
+
+  private static void assertUnique(final NonceSequencer nonces) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+
+    try {
+      for (int t = 0; t < THREADS; t++) {
+        results.add(pool.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() {
+            List<String> out = new ArrayList<String>();
+            byte[] nonce = new byte[NonceSequencer.NONCE_BYTES];
+
+            for (int i = 0; i < PER_THREAD; i++) {
+              nonces.next(nonce, 0);
+              out.add(NaCl.asHex(nonce));
+            }
+
+            return out;
+          }
+        }));
+      }
+
+      Set<String> all = new HashSet<String>();
+
+      for (Future<List<String>> result : results)
+        all.addAll(result.get());
+
+      assertThat(all.size()).isEqualTo(THREADS * PER_THREAD);
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.Poly1305State;
+import com.neilalexander.jnacl.crypto.poly1305;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class Poly1305StateTest {
+
+  @Test
+  public void test_split_updates_match_one_shot() throws Exception {
+    Random random = new Random(6);
+    Poly1305State state = new Poly1305State();
+
+    for (int run = 0; run < 200; run++) {
+      byte[] key = new byte[32];
+      byte[] msg = new byte[random.nextInt(300)];
+      random.nextBytes(key);
+      random.nextBytes(msg);
+
+      byte[] expected = new byte[16];
+      poly1305.crypto_onetimeauth(expected, 0, msg, 0, msg.length, key);
+
+      state.init(key);
+      int offset = 0;
+      while (offset < msg.length) {
+        int piece = Math.min(msg.length - offset, random.nextInt(40));
+        state.update(msg, offset, piece);
+        offset += piece;
+      }
+
+      byte[] actual = new byte[16];
+      state.finish(actual, 0);
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void test_header_and_direct_buffer_payload() throws Exception {
+    Random random = new Random(1305);
+    byte[] key = new byte[32];
+    byte[] header = new byte[13];
+    byte[] payload = new byte[1000];
+    random.nextBytes(key);
+    random.nextBytes(header);
+    random.nextBytes(payload);
+
+    byte[] joined = new byte[header.length + payload.length];
+    System.arraycopy(header, 0, joined, 0, header.length);
+    System.arraycopy(payload, 0, joined, header.length, payload.length);
+    byte[] expected = new byte[16];
+    poly1305.crypto_onetimeauth(expected, 0, joined, 0, joined.length, key);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(payload.length + 7);
+    direct.position(7);
+    direct.put(payload);
+
+    Poly1305State state = new Poly1305State(key);
+    state.update(header, 0, header.length);
+    state.update(direct, 7, payload.length);
+
+    assertThat(state.verify(expected, 0)).isEqualTo(0);
+  }
+
+  @Test
+  public void test_verify_rejects_wrong_tag() throws Exception {
+    byte[] key = new byte[32];
+    key[0] = 1;
+    byte[] msg = "hello".getBytes();
+    byte[] tag = new byte[16];
+    poly1305.crypto_onetimeauth(tag, 0, msg, 0, msg.length, key);
+    tag[15] ^= 1;
+
+    Poly1305State state = new Poly1305State(key);
+    state.update(msg, 0, msg.length);
+
+    assertThat(state.verify(tag, 0)).isEqualTo(-1);
+  }
+
+  @Test
+  public void test_state_refuses_reuse_after_finish() throws Exception {
+    byte[] key = new byte[32];
+    key[0] = 1;
+    byte[] msg = "hello".getBytes();
+    byte[] tag = new byte[16];
+
+    Poly1305State state = new Poly1305State(key);
+    state.update(msg, 0, msg.length);
+    state.finish(tag, 0);
+
+    // without a new init the state would otherwise accept the all-zero authenticator
+    assertThrows(() -> state.update(msg, 0, msg.length));
+    assertThrows(() -> state.update(ByteBuffer.wrap(msg), 0, msg.length));
+    assertThrows(() -> state.verify(new byte[16], 0));
+    assertThrows(() -> state.finish(new byte[16], 0));
+    assertThrows(() -> new Poly1305State().update(msg, 0, msg.length));
+
+    state.init(key);
+    state.update(msg, 0, msg.length);
+    assertThat(state.verify(tag, 0)).isEqualTo(0);
+  }
+
+  private static void assertThrows(Runnable call) {
+    try {
+      call.run();
+    } catch (IllegalStateException e) {
+      return;
+    }
+
+    throw new AssertionError("expected IllegalStateException");
+  }
+}
@@ -0,0 +1,110 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.poly1305;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class Poly1305Test {
+
+  @Test
+  public void test_rfc7539_vector() throws Exception {
+    byte[] key = NaCl.getBinary("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b");
+    byte[] msg = "Cryptographic Forum Research Group".getBytes("US-ASCII");
+    byte[] tag = new byte[16];
+
+    poly1305.crypto_onetimeauth(tag, 0, msg, 0, msg.length, key);
+
+    assertThat(NaCl.asHex(tag)).isEqualTo("a8061dc1305136c6c22b8baf0c0127a9");
+    assertThat(poly1305.crypto_onetimeauth_verify(tag, 0, msg, 0, msg.length, key)).isEqualTo(0);
+  }
+
+  @Test
+  public void test_matches_reference_implementation() throws Exception {
+    Random random = new Random(26);
+
+    for (int length = 0; length < 600; length++) {
+      byte[] key = new byte[32];
+      byte[] msg = new byte[length + 3];
+      random.nextBytes(key);
+      random.nextBytes(msg);
+
+      assertThat(tag(msg, 3, length, key)).isEqualTo(referenceTag(msg, 3, length, key));
+    }
+  }
+
+  @Test
+  public void test_matches_reference_implementation_near_modulus() throws Exception {
+    byte[] ones = new byte[32];
+    Arrays.fill(ones, (byte) 0xff);
+    byte[] zeros = new byte[32];
+    byte[] lowkey = new byte[32];
+    lowkey[0] = 2;
+
+    for (byte[] key : new byte[][]{ones, zeros, lowkey}) {
+      for (byte[] msg : new byte[][]{ones, zeros, Arrays.copyOf(ones, 16), Arrays.copyOf(ones, 17)}) {
+        assertThat(tag(msg, 0, msg.length, key)).isEqualTo(referenceTag(msg, 0, msg.length, key));
+      }
+    }
+  }
+
+  @Test
+  public void test_bytebuffer_matches_byte_array() throws Exception {
+    Random random = new Random(130);
+    byte[] key = new byte[32];
+    byte[] msg = new byte[1001];
+    random.nextBytes(key);
+    random.nextBytes(msg);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(msg.length);
+    direct.put(msg);
+
+    byte[] tag = new byte[16];
+    poly1305.crypto_onetimeauth(tag, 0, direct, 0, msg.length, key);
+
+    assertThat(tag).isEqualTo(referenceTag(msg, 0, msg.length, key));
+  }
+
+  private static byte[] tag(byte[] msg, int offset, int length, byte[] key) {
+    byte[] out = new byte[16];
+    poly1305.crypto_onetimeauth(out, 0, msg, offset, length, key);
+    return out;
+  }
+
+  private static byte[] referenceTag(byte[] msg, int offset, int length, byte[] key) {
+    byte[] out = new byte[16];
+    Poly1305Reference.crypto_onetimeauth(out, 0, msg, offset, length, key);
+    return out;
+  }
+}
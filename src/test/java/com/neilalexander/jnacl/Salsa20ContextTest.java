@@ -0,0 +1,296 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.Salsa20Context;
+import com.neilalexander.jnacl.crypto.salsa20;
+import com.neilalexander.jnacl.crypto.xsalsa20;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class Salsa20ContextTest {
+  private static Random random = new Random(11);
+
+  @Test
+  public void test_stream_matches_core() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+
+    for (int len : new int[] { 0, 1, 63, 64, 65, 128, 1000, 4096 + 7 }) {
+      byte[] actual = new byte[len];
+      Salsa20Context ctx = new Salsa20Context();
+      ctx.init(k, n, 0);
+      ctx.stream(actual, 0, len);
+
+      assertThat(actual).isEqualTo(reference(k, n, 0, len));
+    }
+  }
+
+  @Test
+  public void test_xor_in_uneven_pieces() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+    byte[] m = bytes(3000);
+    byte[] expected = reference(k, n, 0, m.length);
+    byte[] c = new byte[m.length];
+
+    for (int i = 0; i < m.length; i++)
+      expected[i] ^= m[i];
+
+    Salsa20Context ctx = new Salsa20Context();
+    ctx.init(k, n, 0);
+    for (int offset = 0, piece = 1; offset < m.length; offset += piece, piece = piece * 3 % 200 + 1)
+      ctx.xor(c, offset, m, offset, Math.min(piece, m.length - offset));
+
+    assertThat(c).isEqualTo(expected);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(m.length);
+    ctx.init(k, n, 0);
+    ctx.xor(direct, 0, ByteBuffer.wrap(m), 0, 100);
+    ctx.xor(direct, 100, ByteBuffer.wrap(m), 100, m.length - 100);
+
+    byte[] out = new byte[m.length];
+    direct.get(out);
+    assertThat(out).isEqualTo(expected);
+  }
+
+  @Test
+  public void test_xor_buffers_of_mixed_byte_order() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+    byte[] m = bytes(1000);
+    byte[] expected = reference(k, n, 0, m.length);
+
+    for (int i = 0; i < m.length; i++)
+      expected[i] ^= m[i];
+
+    for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+      ByteBuffer in = ByteBuffer.allocateDirect(m.length + 3).order(order);
+      ByteBuffer out = ByteBuffer.allocateDirect(m.length + 5).order(ByteOrder.LITTLE_ENDIAN);
+      in.position(3);
+      in.put(m);
+
+      Salsa20Context ctx = new Salsa20Context();
+      ctx.init(k, n, 0);
+      ctx.xor(out, 5, in, 3, 7);
+      ctx.xor(out, 12, in, 10, m.length - 7);
+
+      byte[] actual = new byte[m.length];
+      out.position(5);
+      out.get(actual);
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void test_counter_carries_into_high_word() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+    long start = 0xffffffffL - 1;
+    byte[] actual = new byte[256];
+
+    Salsa20Context ctx = new Salsa20Context();
+    ctx.init(k, n, 0);
+    ctx.setCounter(start);
+    ctx.stream(actual, 0, actual.length);
+
+    assertThat(actual).isEqualTo(reference(k, n, start, actual.length));
+    assertThat(ctx.getCounter()).isEqualTo(start + 4);
+  }
+
+  @Test
+  public void test_reuse_across_messages() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(24);
+    byte[] m = bytes(777);
+    byte[] expected = new byte[m.length];
+    byte[] actual = new byte[m.length];
+    xsalsa20.crypto_stream_xor(expected, m, m.length, n, k);
+
+    Salsa20Context ctx = new Salsa20Context();
+    ctx.initXSalsa20(bytes(32), bytes(24));
+    ctx.xor(actual, 0, m, 0, 123);
+    ctx.initXSalsa20(k, n);
+    ctx.xor(actual, 0, m, 0, m.length);
+
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  @Test
+  public void test_crypto_stream_longer_than_a_block() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+    byte[] c = new byte[200];
+
+    salsa20.crypto_stream(c, c.length, n, 0, k);
+
+    assertThat(c).isEqualTo(reference(k, n, 0, c.length));
+  }
+
+  @Test
+  public void test_seek_to_unaligned_offsets() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+    byte[] full = reference(k, n, 0, 5000);
+
+    Salsa20Context ctx = new Salsa20Context();
+    ctx.init(k, n, 0);
+    for (int offset : new int[] { 0, 1, 63, 64, 65, 1000, 4095 }) {
+      byte[] actual = new byte[700];
+      ctx.seek(offset);
+      assertThat(ctx.position()).isEqualTo(offset);
+      ctx.stream(actual, 0, actual.length);
+
+      assertThat(actual).isEqualTo(Arrays.copyOfRange(full, offset, offset + 700));
+      assertThat(ctx.position()).isEqualTo(offset + 700);
+    }
+
+    long far = (0xffffffffL << 6) + 17;
+    byte[] actual = new byte[300];
+    salsa20.crypto_stream_at(actual, 0, actual.length, n, 0, k, far);
+    assertThat(actual).isEqualTo(Arrays.copyOfRange(reference(k, n, far >>> 6, 317 + 64), 17, 317));
+  }
+
+  @Test
+  public void test_xor_range_of_xsalsa20_stream() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(24);
+    byte[] m = bytes(10000);
+    byte[] c = new byte[m.length];
+    xsalsa20.crypto_stream_xor(c, m, m.length, n, k);
+
+    for (int offset : new int[] { 0, 7, 64, 4099, 9000 }) {
+      int len = Math.min(777, m.length - offset);
+      byte[] range = new byte[len + 5];
+      xsalsa20.crypto_stream_xor_at(range, 5, c, offset, len, n, k, offset);
+
+      assertThat(Arrays.copyOfRange(range, 5, len + 5)).isEqualTo(Arrays.copyOfRange(m, offset, offset + len));
+    }
+  }
+
+  @Test
+  public void test_vector_engine_is_used_when_available() throws Exception {
+    // the jdk 17 build adds the vector module to the test JVM
+    assertThat(Salsa20Context.vectorized()).isEqualTo(isVectorModulePresent());
+  }
+
+  @Test
+  public void test_used_vector_reports_the_engine_that_ran() throws Exception {
+    byte[] m = new byte[16 * 64 * 4];
+    Salsa20Context ctx = new Salsa20Context();
+    ctx.init(bytes(32), bytes(8), 0);
+
+    ctx.xor(m, 0, m, 0, 64);
+    assertThat(ctx.usedVector()).isFalse();
+
+    ctx.xor(ByteBuffer.wrap(m), 0, ByteBuffer.wrap(m), 0, m.length);
+    assertThat(ctx.usedVector()).isFalse();
+
+    ctx.xor(m, 0, m, 0, m.length);
+    assertThat(ctx.usedVector()).isEqualTo(Salsa20Context.vectorized());
+
+    ctx.wipe();
+    assertThat(ctx.usedVector()).isFalse();
+  }
+
+  @Test
+  public void test_multi_block_runs_match_core() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+
+    // long enough for several multi-block steps, with counters crossing into the high word
+    for (long start : new long[] { 0, 0xffffffffL - 5 }) {
+      for (int len : new int[] { 1024, 1024 + 64 * 3 + 5, 16 * 64 * 4 }) {
+        byte[] actual = new byte[len + 3];
+        byte[] m = new byte[len + 3];
+        Salsa20Context ctx = new Salsa20Context();
+        ctx.init(k, n, 0);
+        ctx.setCounter(start);
+        ctx.xor(actual, 3, m, 3, len);
+
+        assertThat(Arrays.copyOfRange(actual, 3, len + 3)).isEqualTo(reference(k, n, start, len));
+      }
+    }
+  }
+
+  private static boolean isVectorModulePresent() {
+    try {
+      Class.forName("jdk.incubator.vector.IntVector");
+      return true;
+    } catch (Throwable e) {
+      return false;
+    }
+  }
+
+  @Test
+  public void test_multi_block_runs_stay_correct_once_compiled() throws Exception {
+    byte[] k = bytes(32);
+    byte[] n = bytes(8);
+    byte[] expected = reference(k, n, 0, 4096);
+    byte[] actual = new byte[4096];
+    Salsa20Context ctx = new Salsa20Context();
+
+    // enough runs for the JIT to compile the multi-block engine
+    for (int i = 0; i < 20000; i++) {
+      Arrays.fill(actual, (byte) 0);
+      ctx.init(k, n, 0);
+      ctx.xor(actual, 0, actual, 0, actual.length);
+
+      assertThat(actual).isEqualTo(expected);
+    }
+  }
+
+  private static byte[] reference(byte[] k, byte[] n, long counter, int len) {
+    byte[] out = new byte[len];
+    byte[] inv = new byte[16];
+    byte[] block = new byte[64];
+    System.arraycopy(n, 0, inv, 0, 8);
+
+    for (int offset = 0; offset < len; offset += 64, counter++) {
+      for (int i = 0; i < 8; i++)
+        inv[8 + i] = (byte) (counter >>> (8 * i));
+
+      salsa20.crypto_core(block, inv, k, xsalsa20.sigma);
+      System.arraycopy(block, 0, out, offset, Math.min(64, len - offset));
+    }
+
+    return out;
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] buf = new byte[length];
+    random.nextBytes(buf);
+    return buf;
+  }
+}
@@ -0,0 +1,146 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl;
+
+import com.neilalexander.jnacl.crypto.SharedKeyCache;
+import com.neilalexander.jnacl.crypto.curve25519xsalsa20poly1305;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SharedKeyCacheTest {
+  private static byte[] sk = NaCl.getBinary("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+  private static byte[] pk = NaCl.getBinary("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+
+  @Test
+  public void test_hit_returns_computed_key() throws Exception {
+    SharedKeyCache cache = new SharedKeyCache(10);
+    byte[] expected = new byte[32];
+    byte[] first = new byte[32];
+    byte[] second = new byte[32];
+    curve25519xsalsa20poly1305.crypto_box_beforenm(expected, pk, sk);
+
+    cache.get(first, pk, sk);
+    cache.get(second, pk, sk);
+
+    assertThat(first).isEqualTo(expected);
+    assertThat(second).isEqualTo(expected);
+    assertThat(cache.misses()).isEqualTo(1);
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_size_is_bounded_and_evicts_least_recently_used() throws Exception {
+    SharedKeyCache cache = new SharedKeyCache(1);
+    byte[] k = new byte[32];
+    byte[] other = peer(1);
+
+    cache.get(k, pk, sk);
+    cache.get(k, other, sk);
+    cache.get(k, pk, sk);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(3);
+    assertThat(cache.evictions()).isEqualTo(2);
+
+    SharedKeyCache larger = new SharedKeyCache(40);
+    for (int i = 0; i < 100; i++)
+      larger.get(k, peer(i), sk);
+
+    assertThat(larger.size()).isLessThanOrEqualTo(40);
+    assertThat(larger.evictions()).isEqualTo(100 - larger.size());
+  }
+
+  @Test
+  public void test_entries_expire() throws Exception {
+    SharedKeyCache cache = new SharedKeyCache(10, 1, TimeUnit.MILLISECONDS);
+    byte[] k = new byte[32];
+
+    cache.get(k, pk, sk);
+    Thread.sleep(20);
+    cache.get(k, pk, sk);
+
+    assertThat(cache.hits()).isEqualTo(0);
+    assertThat(cache.misses()).isEqualTo(2);
+    assertThat(cache.evictions()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_invalidate_all() throws Exception {
+    SharedKeyCache cache = new SharedKeyCache(10);
+    byte[] k = new byte[32];
+
+    cache.get(k, pk, sk);
+    cache.invalidateAll();
+    cache.get(k, pk, sk);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_crypto_box_consults_cache() throws Exception {
+    SharedKeyCache cache = new SharedKeyCache(10);
+    byte[] alicepk = NaCl.getBinary("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+    byte[] bobsk = NaCl.getBinary("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+    byte[] n = new byte[24];
+    byte[] m = new byte[64];
+    byte[] c = new byte[64];
+    byte[] uncached = new byte[64];
+    byte[] opened = new byte[64];
+    new Random(10).nextBytes(m);
+    for (int i = 0; i < 32; i++)
+      m[i] = 0;
+
+    curve25519xsalsa20poly1305.crypto_box(uncached, m, m.length, n, pk, sk);
+
+    curve25519xsalsa20poly1305.crypto_box_set_cache(cache);
+    try {
+      curve25519xsalsa20poly1305.crypto_box(c, m, m.length, n, pk, sk);
+      curve25519xsalsa20poly1305.crypto_box(c, m, m.length, n, pk, sk);
+      assertThat(curve25519xsalsa20poly1305.crypto_box_open(opened, c, c.length, n, alicepk, bobsk)).isEqualTo(0);
+    } finally {
+      curve25519xsalsa20poly1305.crypto_box_set_cache(null);
+    }
+
+    assertThat(c).isEqualTo(uncached);
+    assertThat(opened).isEqualTo(m);
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(2);
+  }
+
+  private static byte[] peer(int i) {
+    byte[] peer = new byte[32];
+    new Random(i).nextBytes(peer);
+    return peer;
+  }
+}
@@ -0,0 +1,110 @@
+//
+//  Copyright (c) 2011, Neil Alexander T.
+//  All rights reserved.
+// 
+//  Redistribution and use in source and binary forms, with
+//  or without modification, are permitted provided that the following
+//  conditions are met:
+// 
+//  - Redistributions of source code must retain the above copyright notice,
+//    this list of conditions and the following disclaimer.
+//  - Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+// 
+//  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//  POSSIBILITY OF SUCH DAMAGE.
+//
+
+package com.neilalexander.jnacl.crypto;
+
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/*
+ * Runs against whichever littleendian the build put on the test classpath: the Java 9
+ * VarHandle version by default, or the Java 8 baseline when the multi-release profiles are
+ * disabled, e.g. mvn test -P '!java9-multirelease,!java11-flightrecorder,!java17-vector'.
+ */
+public class LittleEndianTest {
+  private static final byte[] bytes = {
+      (byte) 0x80, (byte) 0xff, (byte) 0x01, (byte) 0xfe, (byte) 0x7f, (byte) 0x80, (byte) 0xc3, (byte) 0x9a,
+      (byte) 0xf0, (byte) 0x0f, (byte) 0xaa, (byte) 0x55, (byte) 0xee, (byte) 0x81, (byte) 0x02, (byte) 0xff
+  };
+
+  @Test
+  public void test_load_32_at_every_offset() throws Exception {
+    for (int offset = 0; offset + 4 <= bytes.length; offset++)
+      assertThat(littleendian.load_32(bytes, offset)).isEqualTo(reference(offset, 4).intValue());
+
+    assertThat(littleendian.load_32(bytes, 1)).isEqualTo(0x7ffe01ff);
+    assertThat(littleendian.load_32(bytes, 3)).isEqualTo(0xc3807ffe);
+  }
+
+  @Test
+  public void test_load_64_at_every_offset() throws Exception {
+    for (int offset = 0; offset + 8 <= bytes.length; offset++)
+      assertThat(littleendian.load_64(bytes, offset)).isEqualTo(reference(offset, 8).longValue());
+
+    assertThat(littleendian.load_64(bytes, 5)).isEqualTo(0xee55aa0ff09ac380L);
+  }
+
+  @Test
+  public void test_store_32_at_every_offset() throws Exception {
+    int[] values = { 0x80000000, 0xffffffff, 0x7ffe01ff, 0xc3807ffe, 1 };
+
+    for (int value : values) {
+      for (int offset = 0; offset + 4 <= 11; offset++) {
+        byte[] x = new byte[11];
+        littleendian.store_32(x, offset, value);
+
+        for (int i = 0; i < x.length; i++) {
+          int shift = 8 * (i - offset);
+          byte expected = i >= offset && i < offset + 4 ? (byte) (value >>> shift) : 0;
+          assertThat(x[i]).isEqualTo(expected);
+        }
+
+        assertThat(littleendian.load_32(x, offset)).isEqualTo(value);
+      }
+    }
+  }
+
+  @Test
+  public void test_store_64_at_every_offset() throws Exception {
+    long[] values = { 0x8000000000000000L, -1L, 0xee55aa0ff09ac380L, 0x0123456789abcdefL, 1L };
+
+    for (long value : values) {
+      for (int offset = 0; offset + 8 <= 19; offset++) {
+        byte[] x = new byte[19];
+        littleendian.store_64(x, offset, value);
+
+        for (int i = 0; i < x.length; i++) {
+          int shift = 8 * (i - offset);
+          byte expected = i >= offset && i < offset + 8 ? (byte) (value >>> shift) : 0;
+          assertThat(x[i]).isEqualTo(expected);
+        }
+
+        assertThat(littleendian.load_64(x, offset)).isEqualTo(value);
+      }
+    }
+  }
+
+  private static Long reference(int offset, int length) {
+    long v = 0;
+
+    for (int i = length - 1; i >= 0; i--)
+      v = (v << 8) | (bytes[offset + i] & 0xff);
+
+    return v;
+  }
+}